@@ -9,23 +9,32 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.ConstraintViolationException;
 import java.util.stream.Collectors;
 
 /**
  * 全局异常处理器
+ * 异常统一以 HTTP 200 + Result.fail 返回，业务异常和系统异常会在请求上标记 {@link #REQUEST_FAILED_ATTRIBUTE}，
+ * 供过滤器等无法从响应状态码判断成败的组件识别服务端失败（参数校验类异常属于客户端错误，不标记）。
  */
 @Slf4j
 @RestControllerAdvice
 public class GlobalExceptionHandler {
+
+    /**
+     * 请求处理失败标记（请求属性名）
+     */
+    public static final String REQUEST_FAILED_ATTRIBUTE = GlobalExceptionHandler.class.getName() + ".FAILED";
     
     /**
      * 业务异常
      */
     @ExceptionHandler(BusinessException.class)
-    public Result<?> handleBusinessException(BusinessException e) {
+    public Result<?> handleBusinessException(BusinessException e, HttpServletRequest request) {
         log.error("业务异常：{}", e.getMessage(), e);
+        request.setAttribute(REQUEST_FAILED_ATTRIBUTE, Boolean.TRUE);
         return Result.fail(e.getCode(), e.getMessage());
     }
     
@@ -78,8 +87,9 @@ public class GlobalExceptionHandler {
      * 其他异常
      */
     @ExceptionHandler(Exception.class)
-    public Result<?> handleException(Exception e) {
+    public Result<?> handleException(Exception e, HttpServletRequest request) {
         log.error("系统异常：{}", e.getMessage(), e);
+        request.setAttribute(REQUEST_FAILED_ATTRIBUTE, Boolean.TRUE);
         return Result.fail(ResultCode.SYSTEM_ERROR);
     }
 }
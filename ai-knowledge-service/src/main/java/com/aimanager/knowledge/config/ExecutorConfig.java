@@ -0,0 +1,92 @@
+package com.aimanager.knowledge.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程池配置
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${document.upload.storage-threads:4}")
+    private int uploadStorageThreads;
+
+    @Value("${document.parse.pdf-threads:4}")
+    private int pdfParseThreads;
+
+    @Value("${document.ingestion.worker-threads:2}")
+    private int ingestionWorkerThreads;
+
+    @Value("${document.revectorize.threads:4}")
+    private int revectorizeThreads;
+
+    @Value("${document.download.threads:8}")
+    private int downloadThreads;
+
+    /**
+     * 上传存储线程池（文件写入 MinIO 与文档解析并行）
+     */
+    @Bean(name = "uploadExecutor", destroyMethod = "shutdown")
+    public ExecutorService uploadExecutor() {
+        return Executors.newFixedThreadPool(uploadStorageThreads, namedThreadFactory("upload-storage-"));
+    }
+
+    /**
+     * PDF解析线程池（按页段并行提取文本）
+     */
+    @Bean(name = "pdfParseExecutor", destroyMethod = "shutdown")
+    public ExecutorService pdfParseExecutor() {
+        return Executors.newFixedThreadPool(pdfParseThreads, namedThreadFactory("pdf-parse-"));
+    }
+
+    /**
+     * 入库任务线程池（分块、向量化），限制同时调用向量服务的并发数
+     */
+    @Bean(name = "ingestionExecutor", destroyMethod = "shutdown")
+    public ExecutorService ingestionExecutor() {
+        return Executors.newFixedThreadPool(ingestionWorkerThreads, namedThreadFactory("ingestion-worker-"));
+    }
+
+    /**
+     * 全量重新向量化调度线程（按批扫描文档并推进检查点）
+     */
+    @Bean(name = "revectorizeCoordinator", destroyMethod = "shutdown")
+    public ExecutorService revectorizeCoordinator() {
+        return Executors.newSingleThreadExecutor(namedThreadFactory("revectorize-coordinator-"));
+    }
+
+    /**
+     * 全量重新向量化线程池（批内文档并行向量化）
+     */
+    @Bean(name = "revectorizeExecutor", destroyMethod = "shutdown")
+    public ExecutorService revectorizeExecutor() {
+        return Executors.newFixedThreadPool(revectorizeThreads, namedThreadFactory("revectorize-worker-"));
+    }
+
+    /**
+     * 文件下载线程池（代理下载在此线程池中写出响应，不占用请求处理线程）
+     */
+    @Bean(name = "downloadExecutor", destroyMethod = "shutdown")
+    public ExecutorService downloadExecutor() {
+        return Executors.newFixedThreadPool(downloadThreads, namedThreadFactory("file-download-"));
+    }
+
+    /**
+     * 创建带名称前缀的守护线程工厂
+     */
+    static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -4,6 +4,7 @@ import io.minio.MinioClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 /**
  * MinIO配置
@@ -19,13 +20,35 @@ public class MinioConfig {
     
     @Value("${minio.secret-key:minioadmin}")
     private String secretKey;
+
+    /**
+     * 客户端访问 MinIO 的地址（预签名URL使用），未配置时与 endpoint 相同
+     */
+    @Value("${minio.public-endpoint:${minio.endpoint:http://localhost:9000}}")
+    private String publicEndpoint;
+
+    @Value("${minio.region:us-east-1}")
+    private String region;
     
     @Bean
+    @Primary
     public MinioClient minioClient() {
         return MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
                 .build();
     }
+
+    /**
+     * 预签名专用客户端：签名只在本地计算，指定 region 避免额外的区域查询请求
+     */
+    @Bean(name = "presignMinioClient")
+    public MinioClient presignMinioClient() {
+        return MinioClient.builder()
+                .endpoint(publicEndpoint)
+                .credentials(accessKey, secretKey)
+                .region(region)
+                .build();
+    }
 }
 
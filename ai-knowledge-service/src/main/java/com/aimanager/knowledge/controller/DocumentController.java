@@ -1,15 +1,37 @@
 package com.aimanager.knowledge.controller;
 
 import com.aimanager.common.result.Result;
+import com.aimanager.knowledge.dto.DocumentCursorPageVO;
+import com.aimanager.knowledge.dto.DocumentListVO;
+import com.aimanager.knowledge.dto.DocumentSearchHitVO;
 import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.service.DocumentSearchService;
 import com.aimanager.knowledge.service.DocumentService;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 /**
  * 文档控制器
@@ -20,6 +42,19 @@ import java.util.Map;
 public class DocumentController {
     
     private final DocumentService documentService;
+    private final DocumentSearchService documentSearchService;
+    @Qualifier("downloadExecutor")
+    private final ExecutorService downloadExecutor;
+
+    @Value("${document.download.timeout-ms:600000}")
+    private long downloadTimeoutMs;
+
+    private AsyncTaskExecutor downloadTaskExecutor;
+
+    @PostConstruct
+    public void init() {
+        downloadTaskExecutor = new TaskExecutorAdapter(downloadExecutor);
+    }
     
     /**
      * 上传文档
@@ -39,16 +74,64 @@ public class DocumentController {
      * 分页查询文档
      */
     @GetMapping("/page")
-    public Result<Page<Document>> pageDocuments(
+    public Result<Page<DocumentListVO>> pageDocuments(
             @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
             @RequestParam(value = "pageSize", defaultValue = "10") int pageSize,
             @RequestParam(value = "categoryId", required = false) Long categoryId,
-            @RequestParam(value = "keyword", required = false) String keyword) {
+            @RequestParam(value = "keyword", required = false) String keyword,
+            @RequestParam(value = "snippetLength", defaultValue = "0") int snippetLength) {
+
+        Page<DocumentListVO> page = documentService.pageDocuments(pageNum, pageSize, categoryId, keyword, snippetLength);
+        return Result.success(page);
+    }
+
+    /**
+     * 游标分页查询文档
+     */
+    @GetMapping("/list")
+    public Result<DocumentCursorPageVO> listDocuments(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", defaultValue = "20") int pageSize,
+            @RequestParam(value = "categoryId", required = false) Long categoryId,
+            @RequestParam(value = "keyword", required = false) String keyword,
+            @RequestParam(value = "snippetLength", defaultValue = "0") int snippetLength) {
 
-        Page<Document> page = documentService.pageDocuments(pageNum, pageSize, categoryId, keyword);
+        DocumentCursorPageVO page = documentService.listDocuments(
+                cursor, Math.max(1, Math.min(pageSize, 100)), categoryId, keyword, snippetLength);
         return Result.success(page);
     }
     
+    /**
+     * 全文检索文档
+     */
+    @GetMapping("/search")
+    public Result<Page<DocumentSearchHitVO>> searchDocuments(
+            @RequestParam(value = "keyword") String keyword,
+            @RequestParam(value = "categoryId", required = false) Long categoryId,
+            @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
+            @RequestParam(value = "pageSize", defaultValue = "10") int pageSize) {
+
+        Page<DocumentSearchHitVO> page = documentService.searchDocuments(
+                keyword, categoryId, pageNum, Math.max(1, Math.min(pageSize, 100)));
+        return Result.success(page);
+    }
+
+    /**
+     * 重建全文索引
+     */
+    @PostMapping("/search/rebuild")
+    public Result<Integer> rebuildSearchIndex() {
+        return Result.success(documentSearchService.rebuildIndex());
+    }
+
+    /**
+     * 获取全文索引状态
+     */
+    @GetMapping("/search/stats")
+    public Result<Map<String, Object>> getSearchIndexStats() {
+        return Result.success(documentSearchService.getIndexStats());
+    }
+    
     /**
      * 获取文档详情
      */
@@ -58,6 +141,85 @@ public class DocumentController {
         return Result.success(document);
     }
 
+    /**
+     * 下载文档原文件
+     * 默认重定向到 MinIO 预签名地址，由客户端直接下载；redirect=false 时由本服务代理，
+     * 支持单段 Range 请求（断点续传）。代理下载以 WebAsyncTask 提交到下载线程池，从本地磁盘缓存写出，
+     * 不缓冲整个文件，也不占用请求处理线程；其他异步请求仍使用默认异步执行器。
+     */
+    @GetMapping("/{id}/download")
+    public WebAsyncTask<ResponseEntity<Void>> downloadDocument(
+            @PathVariable(value = "id") Long id,
+            @RequestParam(value = "redirect", required = false) Boolean redirect,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            HttpServletResponse response) {
+        Document document = documentService.getDownloadDocument(id);
+        String contentDisposition = ContentDisposition.attachment()
+                .filename(downloadFilename(document), StandardCharsets.UTF_8)
+                .build()
+                .toString();
+
+        if (redirect != null ? redirect : documentService.isDownloadRedirect()) {
+            documentService.recordDownload(id);
+            String url = documentService.getPresignedDownloadUrl(document, contentDisposition);
+            return downloadTask(() -> ResponseEntity.status(HttpStatus.FOUND).location(URI.create(url)).build());
+        }
+
+        long fileSize = document.getFileSize();
+        long start = 0;
+        long end = fileSize - 1;
+        boolean partial = false;
+        if (rangeHeader != null) {
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                // 多段 Range 按规范可忽略，返回完整文件
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(fileSize);
+                    end = ranges.get(0).getRangeEnd(fileSize);
+                    partial = true;
+                }
+            } catch (IllegalArgumentException e) {
+                return downloadTask(() -> ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
+                        .build());
+            }
+        }
+
+        // 续传的后续分段不重复计数
+        if (start == 0) {
+            documentService.recordDownload(id);
+        }
+
+        long offset = start;
+        long length = end - start + 1;
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(Math.max(length, 0));
+        if (partial) {
+            builder.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize);
+        }
+        ResponseEntity<Void> head = builder.build();
+        if (length <= 0) {
+            return downloadTask(() -> head);
+        }
+
+        // 先写状态和响应头再写文件内容；写出后响应已提交，返回的 head 不会再改动响应
+        return downloadTask(() -> {
+            response.setStatus(head.getStatusCode().value());
+            head.getHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            OutputStream out = response.getOutputStream();
+            documentService.writeDownloadRange(document, offset, length, out);
+            out.flush();
+            return head;
+        });
+    }
+
+    private WebAsyncTask<ResponseEntity<Void>> downloadTask(Callable<ResponseEntity<Void>> callable) {
+        return new WebAsyncTask<>(downloadTimeoutMs, downloadTaskExecutor, callable);
+    }
+
     /**
      * 删除文档
      */
@@ -88,7 +250,7 @@ public class DocumentController {
     }
 
     /**
-     * 重新向量化所有文档
+     * 重新向量化所有文档（后台执行；存在未完成的任务时从检查点继续）
      */
     @PostMapping("/revectorize-all")
     public Result<Map<String, Object>> revectorizeAllDocuments() {
@@ -96,6 +258,14 @@ public class DocumentController {
         return Result.success(result);
     }
 
+    /**
+     * 查询全量重新向量化进度（含预计剩余时间）
+     */
+    @GetMapping("/revectorize-all/progress")
+    public Result<Map<String, Object>> getRevectorizeProgress() {
+        return Result.success(documentService.getRevectorizeProgress());
+    }
+
     /**
      * 重新向量化单个文档
      */
@@ -104,5 +274,42 @@ public class DocumentController {
         int chunkCount = documentService.revectorizeDocument(id);
         return Result.success(chunkCount);
     }
-}
 
+    /**
+     * 重新解析单个文档（从原文件重新提取内容并重新入库）
+     */
+    @PostMapping("/{id}/reparse")
+    public Result<Document> reparseDocument(@PathVariable(value = "id") Long id) {
+        return Result.success(documentService.reparseDocument(id));
+    }
+
+    /**
+     * 查询文档入库进度（已向量化分块数 / 分块总数）
+     */
+    @GetMapping("/{id}/ingestion-status")
+    public Result<Map<String, Object>> getIngestionStatus(@PathVariable(value = "id") Long id) {
+        return Result.success(documentService.getIngestionStatus(id));
+    }
+
+    /**
+     * 压缩历史未压缩的文档内容，并回填内容摘录
+     */
+    @PostMapping("/content/compress")
+    public Result<Integer> compressLegacyContent() {
+        return Result.success(documentService.compressLegacyContent());
+    }
+
+    /**
+     * 获取文档缓存统计信息
+     */
+    @GetMapping("/cache/stats")
+    public Result<Map<String, Object>> getCacheStats() {
+        return Result.success(documentService.getCacheStats());
+    }
+
+    private String downloadFilename(Document document) {
+        String title = document.getDocTitle() == null ? String.valueOf(document.getId()) : document.getDocTitle();
+        String type = document.getDocType();
+        return type == null || type.isEmpty() || title.endsWith("." + type) ? title : title + "." + type;
+    }
+}
@@ -0,0 +1,27 @@
+package com.aimanager.knowledge.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ */
+@Data
+public class DocumentCursorPageVO {
+
+    /**
+     * 当前页记录
+     */
+    private List<DocumentListVO> records;
+
+    /**
+     * 下一页游标（没有更多数据时为 null）
+     */
+    private String nextCursor;
+
+    /**
+     * 是否还有更多数据
+     */
+    private Boolean hasMore;
+}
@@ -0,0 +1,29 @@
+package com.aimanager.knowledge.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文档列表视图对象（不含 content）
+ */
+@Data
+public class DocumentListVO {
+
+    private Long id;
+    private Long categoryId;
+    private String docTitle;
+    private String docType;
+    private Long fileSize;
+    private String tags;
+    private Integer viewCount;
+    private Integer downloadCount;
+    private Integer status;
+    private LocalDateTime createTime;
+    private LocalDateTime updateTime;
+
+    /**
+     * 内容摘录（仅在请求 snippetLength 时返回）
+     */
+    private String snippet;
+}
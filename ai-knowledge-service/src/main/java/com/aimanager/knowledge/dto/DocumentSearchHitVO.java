@@ -0,0 +1,24 @@
+package com.aimanager.knowledge.dto;
+
+import lombok.Data;
+
+/**
+ * 全文检索命中结果
+ */
+@Data
+public class DocumentSearchHitVO {
+
+    private Long id;
+    private Long categoryId;
+    private String docTitle;
+
+    /**
+     * 相关度得分
+     */
+    private Float score;
+
+    /**
+     * 高亮摘录（命中词以 em 标签包裹）
+     */
+    private String highlight;
+}
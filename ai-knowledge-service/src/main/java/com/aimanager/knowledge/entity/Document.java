@@ -1,9 +1,13 @@
 package com.aimanager.knowledge.entity;
 
 import com.aimanager.common.entity.BaseEntity;
+import com.aimanager.knowledge.util.ContentCodec;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 /**
  * 文档实体
@@ -44,9 +48,30 @@ public class Document extends BaseEntity {
     private String fileHash;
     
     /**
-     * 文档内容
+     * 文档内容（zstd 压缩后存储，见 {@link ContentCodec}）
      */
+    @JsonIgnore
+    @ToString.Exclude
+    @TableField("content")
+    private byte[] contentData;
+
+    /**
+     * 文档内容（首次访问时从 contentData 解压）
+     */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @TableField(exist = false)
     private String content;
+
+    /**
+     * 内容摘录（正文前若干字符，未压缩，供列表展示，避免列表读取 content）
+     */
+    private String contentSnippet;
+
+    /**
+     * 分页偏移（每页在正文中的起始偏移，逗号分隔；仅PDF）
+     */
+    private String pageOffsets;
     
     /**
      * 摘要
@@ -72,5 +97,33 @@ public class Document extends BaseEntity {
      * 状态（0-草稿，1-已发布，2-已归档）
      */
     private Integer status;
-}
 
+    /**
+     * 上传时检测到的重复文档ID（非数据库字段，仅在上传响应中返回）
+     */
+    @TableField(exist = false)
+    private Long duplicateOf;
+
+    /**
+     * 重复文档标题（非数据库字段）
+     */
+    @TableField(exist = false)
+    private String duplicateOfTitle;
+
+    public String getContent() {
+        if (content == null && contentData != null) {
+            content = ContentCodec.decode(contentData);
+        }
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+        this.contentData = ContentCodec.encode(content);
+    }
+
+    public void setContentData(byte[] contentData) {
+        this.contentData = contentData;
+        this.content = null;
+    }
+}
@@ -0,0 +1,67 @@
+package com.aimanager.knowledge.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文档分块实体
+ */
+@Data
+@TableName("t_document_chunk")
+public class DocumentChunk {
+
+    /**
+     * 主键ID
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 文档ID
+     */
+    private Long docId;
+
+    /**
+     * 分块索引
+     */
+    private Integer chunkIndex;
+
+    /**
+     * 起始偏移（字符）
+     */
+    private Integer startOffset;
+
+    /**
+     * 结束偏移（字符，不含）
+     */
+    private Integer endOffset;
+
+    /**
+     * 起始页码（从1开始，无分页信息时为空）
+     */
+    private Integer startPage;
+
+    /**
+     * 结束页码（含）
+     */
+    private Integer endPage;
+
+    /**
+     * 分块内容
+     */
+    private String chunkContent;
+
+    /**
+     * 分块内容哈希（SHA-256）
+     */
+    private String contentHash;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+}
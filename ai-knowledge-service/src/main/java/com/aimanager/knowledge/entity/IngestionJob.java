@@ -0,0 +1,95 @@
+package com.aimanager.knowledge.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import org.apache.ibatis.type.JdbcType;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文档入库任务实体
+ */
+@Data
+@TableName("t_ingestion_job")
+public class IngestionJob {
+
+    /**
+     * 主键ID
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 文档ID
+     */
+    private Long docId;
+
+    /**
+     * 内容相同的源文档ID（向量化阶段优先复制其向量）
+     */
+    private Long sourceDocId;
+
+    /**
+     * 状态（PENDING/RUNNING/SUCCESS/FAILED/CANCELLED）
+     */
+    private String status;
+
+    /**
+     * 当前阶段（CHUNK/EMBED/DONE）
+     */
+    private String stage;
+
+    /**
+     * 当前阶段已尝试次数
+     */
+    private Integer attempts;
+
+    /**
+     * 每阶段最大尝试次数
+     */
+    private Integer maxAttempts;
+
+    /**
+     * 分块总数
+     */
+    private Integer totalChunks;
+
+    /**
+     * 已向量化分块数
+     */
+    private Integer embeddedChunks;
+
+    /**
+     * 下次可执行时间
+     */
+    private LocalDateTime nextRunTime;
+
+    /**
+     * 执行租约到期时间
+     */
+    private LocalDateTime leaseUntil;
+
+    /**
+     * 最近一次错误信息
+     */
+    @TableField(jdbcType = JdbcType.LONGVARCHAR)
+    private String lastError;
+
+    /**
+     * 完成时间
+     */
+    private LocalDateTime finishTime;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,85 @@
+package com.aimanager.knowledge.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import org.apache.ibatis.type.JdbcType;
+
+import java.time.LocalDateTime;
+
+/**
+ * 全量重新向量化任务实体
+ */
+@Data
+@TableName("t_revectorize_task")
+public class RevectorizeTask {
+
+    /**
+     * 主键ID
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 状态（RUNNING/COMPLETED）
+     */
+    private String status;
+
+    /**
+     * 检查点：已处理完成的最大文档ID
+     */
+    private Long lastDocId;
+
+    /**
+     * 待处理文档总数
+     */
+    private Integer totalDocuments;
+
+    /**
+     * 已处理文档数
+     */
+    private Integer processedDocuments;
+
+    /**
+     * 成功文档数
+     */
+    private Integer successCount;
+
+    /**
+     * 失败文档数
+     */
+    private Integer failCount;
+
+    /**
+     * 已向量化分块数
+     */
+    private Integer totalChunks;
+
+    /**
+     * 最近一次错误信息
+     */
+    @TableField(jdbcType = JdbcType.LONGVARCHAR)
+    private String lastError;
+
+    /**
+     * 开始时间
+     */
+    private LocalDateTime startTime;
+
+    /**
+     * 完成时间
+     */
+    private LocalDateTime finishTime;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,61 @@
+package com.aimanager.knowledge.mapper;
+
+import com.aimanager.knowledge.entity.DocumentChunk;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档分块Mapper
+ */
+@Mapper
+public interface DocumentChunkMapper extends BaseMapper<DocumentChunk> {
+
+    /**
+     * 批量插入分块（单条多值INSERT）
+     */
+    @Insert("<script>" +
+            "INSERT INTO t_document_chunk (doc_id, chunk_index, start_offset, end_offset, start_page, end_page, chunk_content, content_hash) VALUES " +
+            "<foreach collection='chunks' item='c' separator=','>" +
+            "(#{c.docId}, #{c.chunkIndex}, #{c.startOffset}, #{c.endOffset}, #{c.startPage}, #{c.endPage}, #{c.chunkContent}, #{c.contentHash})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("chunks") Collection<DocumentChunk> chunks);
+
+    /**
+     * 按 (doc_id, chunk_index) 批量查询分块
+     *
+     * @param keys 每个元素包含 docId、chunkIndex
+     */
+    @Select("<script>" +
+            "SELECT id, doc_id, chunk_index, start_offset, end_offset, start_page, end_page, chunk_content, content_hash, create_time " +
+            "FROM t_document_chunk WHERE (doc_id, chunk_index) IN " +
+            "<foreach collection='keys' item='k' open='(' separator=',' close=')'>" +
+            "(#{k.docId}, #{k.chunkIndex})" +
+            "</foreach>" +
+            "</script>")
+    List<DocumentChunk> selectByKeys(@Param("keys") Collection<Map<String, Object>> keys);
+
+    /**
+     * 批量统计文档分块数
+     */
+    @Select("<script>" +
+            "SELECT doc_id AS docId, COUNT(*) AS total FROM t_document_chunk WHERE doc_id IN " +
+            "<foreach collection='docIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            " GROUP BY doc_id" +
+            "</script>")
+    List<Map<String, Object>> countByDocIds(@Param("docIds") Collection<Long> docIds);
+
+    /**
+     * 删除文档的全部分块
+     */
+    @Delete("DELETE FROM t_document_chunk WHERE doc_id = #{docId}")
+    int deleteByDocId(@Param("docId") Long docId);
+}
@@ -3,11 +3,34 @@ package com.aimanager.knowledge.mapper;
 import com.aimanager.knowledge.entity.Document;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * 文档Mapper
  */
 @Mapper
 public interface DocumentMapper extends BaseMapper<Document> {
-}
 
+    /**
+     * 批量累加浏览/下载次数（单条UPDATE，不修改 update_time）
+     *
+     * @param deltas 每个元素包含 docId、views、downloads
+     */
+    @Update("<script>" +
+            "UPDATE t_document SET " +
+            "view_count = view_count + CASE id " +
+            "<foreach collection='deltas' item='d'>WHEN #{d.docId} THEN #{d.views} </foreach>" +
+            "ELSE 0 END, " +
+            "download_count = download_count + CASE id " +
+            "<foreach collection='deltas' item='d'>WHEN #{d.docId} THEN #{d.downloads} </foreach>" +
+            "ELSE 0 END, " +
+            "update_time = update_time " +
+            "WHERE id IN " +
+            "<foreach collection='deltas' item='d' open='(' separator=',' close=')'>#{d.docId}</foreach>" +
+            "</script>")
+    int incrementCounters(@Param("deltas") Collection<Map<String, Object>> deltas);
+}
@@ -0,0 +1,42 @@
+package com.aimanager.knowledge.mapper;
+
+import com.aimanager.knowledge.entity.IngestionJob;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 文档入库任务Mapper
+ */
+@Mapper
+public interface IngestionJobMapper extends BaseMapper<IngestionJob> {
+
+    /**
+     * 查询可执行的任务：到期的待执行任务，以及租约已过期的执行中任务（执行者宕机或重启）
+     */
+    @Select("SELECT * FROM t_ingestion_job " +
+            "WHERE (status = 'PENDING' AND next_run_time <= #{now}) " +
+            "OR (status = 'RUNNING' AND lease_until < #{now}) " +
+            "ORDER BY next_run_time LIMIT #{limit}")
+    List<IngestionJob> selectRunnable(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * 抢占任务（条件更新，多实例下只有一个实例能抢到）
+     */
+    @Update("UPDATE t_ingestion_job SET status = 'RUNNING', attempts = attempts + 1, lease_until = #{leaseUntil} " +
+            "WHERE id = #{id} AND ((status = 'PENDING' AND next_run_time <= #{now}) " +
+            "OR (status = 'RUNNING' AND lease_until < #{now}))")
+    int claim(@Param("id") Long id, @Param("now") LocalDateTime now, @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * 取消文档待执行和执行中的任务（执行中的任务在下一个检查点发现后停止）
+     */
+    @Update("UPDATE t_ingestion_job SET status = 'CANCELLED', lease_until = NULL, finish_time = NOW() " +
+            "WHERE doc_id = #{docId} AND status IN ('PENDING', 'RUNNING')")
+    int cancelActive(@Param("docId") Long docId);
+}
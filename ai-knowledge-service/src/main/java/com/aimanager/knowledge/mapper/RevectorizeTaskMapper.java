@@ -0,0 +1,12 @@
+package com.aimanager.knowledge.mapper;
+
+import com.aimanager.knowledge.entity.RevectorizeTask;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+
+/**
+ * 全量重新向量化任务Mapper
+ */
+@Mapper
+public interface RevectorizeTaskMapper extends BaseMapper<RevectorizeTask> {
+}
@@ -0,0 +1,160 @@
+package com.aimanager.knowledge.service;
+
+import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.entity.DocumentChunk;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 文档缓存服务
+ * 缓存文档（含 content）及其分块数组，按字节权重而非条目数限制容量。
+ * 文档删除、重新向量化时需调用 {@link #invalidate(Long)} 使缓存失效。
+ */
+@Slf4j
+@Service
+public class DocumentCacheService {
+
+    /**
+     * 每个缓存条目的固定开销估算（字节）
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Cache<Long, Document> documentCache;
+    private final Cache<Long, List<DocumentChunk>> chunkCache;
+
+    public DocumentCacheService(
+            @Value("${document.cache.content-max-bytes:268435456}") long contentMaxBytes,
+            @Value("${document.cache.chunk-max-bytes:134217728}") long chunkMaxBytes,
+            @Value("${document.cache.expire-minutes:60}") long expireMinutes) {
+        this.documentCache = Caffeine.newBuilder()
+                .maximumWeight(contentMaxBytes)
+                .weigher((Long id, Document doc) -> weigh(doc))
+                .expireAfterAccess(Duration.ofMinutes(expireMinutes))
+                .recordStats()
+                .build();
+        this.chunkCache = Caffeine.newBuilder()
+                .maximumWeight(chunkMaxBytes)
+                .weigher((Long id, List<DocumentChunk> chunks) -> weigh(chunks))
+                .expireAfterAccess(Duration.ofMinutes(expireMinutes))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 获取文档，未命中时通过 loader 加载（loader 返回 null 时不缓存）
+     * 返回缓存条目的浅拷贝（共享压缩字节）：调用方解压出的 content 只留在拷贝上，缓存中始终只保留压缩字节
+     */
+    public Document getDocument(Long docId, Function<Long, Document> loader) {
+        Document cached = documentCache.get(docId, loader);
+        if (cached == null) {
+            return null;
+        }
+        Document copy = new Document();
+        BeanUtils.copyProperties(cached, copy, "content");
+        return copy;
+    }
+
+    /**
+     * 获取文档的全部分块（按 chunkIndex 排序），未命中时通过 loader 加载
+     */
+    public List<DocumentChunk> getChunks(Long docId, Function<Long, List<DocumentChunk>> loader) {
+        return chunkCache.get(docId, loader);
+    }
+
+    /**
+     * 获取已缓存的文档分块，未缓存时返回 null（不触发加载）
+     */
+    public List<DocumentChunk> getChunksIfPresent(Long docId) {
+        return chunkCache.getIfPresent(docId);
+    }
+
+    /**
+     * 批量获取多个文档的全部分块，未命中的文档通过 loader 一次加载（loader 结果中缺失的文档不缓存）
+     */
+    public Map<Long, List<DocumentChunk>> getChunks(Collection<Long> docIds,
+                                                    Function<Set<? extends Long>, Map<Long, List<DocumentChunk>>> loader) {
+        return chunkCache.getAll(docIds, loader);
+    }
+
+    /**
+     * 使文档及其分块缓存失效
+     */
+    public void invalidate(Long docId) {
+        documentCache.invalidate(docId);
+        chunkCache.invalidate(docId);
+        log.debug("文档缓存已失效: docId={}", docId);
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        documentCache.invalidateAll();
+        chunkCache.invalidateAll();
+        log.info("文档缓存已清空");
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("document", toStats(documentCache));
+        stats.put("chunk", toStats(chunkCache));
+        return stats;
+    }
+
+    private Map<String, Object> toStats(Cache<Long, ?> cache) {
+        CacheStats cacheStats = cache.stats();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", cache.estimatedSize());
+        stats.put("weightBytes", cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        stats.put("hitCount", cacheStats.hitCount());
+        stats.put("missCount", cacheStats.missCount());
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictionCount", cacheStats.evictionCount());
+        stats.put("averageLoadPenaltyMs", cacheStats.averageLoadPenalty() / 1_000_000.0);
+        return stats;
+    }
+
+    private static int weigh(Document doc) {
+        // 只按压缩字节计重，不调用 getContent()，避免为计重解压并常驻解压后的字符串
+        long bytes = ENTRY_OVERHEAD + byteLength(doc.getContentData())
+                + stringBytes(doc.getDocTitle()) + stringBytes(doc.getContentSnippet())
+                + stringBytes(doc.getSummary()) + stringBytes(doc.getTags()) + stringBytes(doc.getPageOffsets());
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static int weigh(List<DocumentChunk> chunks) {
+        long bytes = ENTRY_OVERHEAD;
+        for (DocumentChunk chunk : chunks) {
+            bytes += ENTRY_OVERHEAD + stringBytes(chunk.getChunkContent());
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static long byteLength(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    /**
+     * 字符串堆内存占用估算（UTF-16，每字符2字节）
+     */
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 2L * value.length();
+    }
+}
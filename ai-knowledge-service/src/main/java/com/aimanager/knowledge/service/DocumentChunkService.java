@@ -0,0 +1,266 @@
+package com.aimanager.knowledge.service;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.entity.DocumentChunk;
+import com.aimanager.knowledge.mapper.DocumentChunkMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档分块服务
+ * 上传时一次性分块并写入 t_document_chunk，检索回填时按 (docId, chunkIndex) 批量读取，
+ * 不再为了取一个分块而加载整篇 content 并重新分块。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentChunkService {
+
+    /**
+     * 分块大小，与向量服务 TextChunkService 的实际分块大小保持一致
+     */
+    private static final int CHUNK_SIZE = 400;
+
+    /**
+     * 单条 INSERT 写入的最大分块数
+     */
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    private final DocumentChunkMapper documentChunkMapper;
+
+    /**
+     * 重建文档分块（删除旧分块后重新写入），文档带分页偏移时为分块标注页码
+     *
+     * @return 写入的分块（按 chunkIndex 排序）
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<DocumentChunk> rebuildChunks(Document document) {
+        Long docId = document.getId();
+        documentChunkMapper.deleteByDocId(docId);
+
+        List<DocumentChunk> chunks = splitChunks(docId, document.getContent());
+        assignPages(chunks, parsePageOffsets(document.getPageOffsets()));
+        for (int i = 0; i < chunks.size(); i += INSERT_BATCH_SIZE) {
+            documentChunkMapper.insertBatch(chunks.subList(i, Math.min(i + INSERT_BATCH_SIZE, chunks.size())));
+        }
+
+        log.info("文档分块已持久化: docId={}, 分块数={}", docId, chunks.size());
+        return chunks;
+    }
+
+    /**
+     * 按 (docId, chunkIndex) 批量查询分块
+     *
+     * @param keys 每个元素包含 docId、chunkIndex
+     */
+    public List<DocumentChunk> getChunks(Collection<Map<String, Object>> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return List.of();
+        }
+        return documentChunkMapper.selectByKeys(keys);
+    }
+
+    /**
+     * 查询单个分块
+     */
+    public DocumentChunk getChunk(Long docId, Integer chunkIndex) {
+        return documentChunkMapper.selectOne(new LambdaQueryWrapper<DocumentChunk>()
+                .eq(DocumentChunk::getDocId, docId)
+                .eq(DocumentChunk::getChunkIndex, chunkIndex));
+    }
+
+    /**
+     * 查询文档的全部分块（按 chunkIndex 排序）
+     */
+    public List<DocumentChunk> listChunks(Long docId) {
+        return documentChunkMapper.selectList(new LambdaQueryWrapper<DocumentChunk>()
+                .eq(DocumentChunk::getDocId, docId)
+                .orderByAsc(DocumentChunk::getChunkIndex));
+    }
+
+    /**
+     * 一次查询多个文档的全部分块，按文档分组（每组按 chunkIndex 排序；没有分块的文档不在结果中）
+     */
+    public Map<Long, List<DocumentChunk>> listChunks(Collection<Long> docIds) {
+        Map<Long, List<DocumentChunk>> result = new HashMap<>();
+        if (docIds == null || docIds.isEmpty()) {
+            return result;
+        }
+        List<DocumentChunk> chunks = documentChunkMapper.selectList(new LambdaQueryWrapper<DocumentChunk>()
+                .in(DocumentChunk::getDocId, docIds)
+                .orderByAsc(DocumentChunk::getDocId, DocumentChunk::getChunkIndex));
+        for (DocumentChunk chunk : chunks) {
+            result.computeIfAbsent(chunk.getDocId(), id -> new ArrayList<>()).add(chunk);
+        }
+        return result;
+    }
+
+    /**
+     * 批量统计文档分块数（没有分块的文档不在结果中）
+     */
+    public Map<Long, Integer> countChunks(Collection<Long> docIds) {
+        Map<Long, Integer> result = new HashMap<>();
+        if (docIds == null || docIds.isEmpty()) {
+            return result;
+        }
+        for (Map<String, Object> row : documentChunkMapper.countByDocIds(docIds)) {
+            result.put(((Number) row.get("docId")).longValue(), ((Number) row.get("total")).intValue());
+        }
+        return result;
+    }
+
+    /**
+     * 删除文档的全部分块
+     */
+    public void deleteChunks(Long docId) {
+        documentChunkMapper.deleteByDocId(docId);
+    }
+
+    /**
+     * 智能分块（与向量服务 TextChunkService.smartChunk 的分块结果逐块一致），同时记录每块在原文中的偏移
+     */
+    public List<DocumentChunk> splitChunks(Long docId, String text) {
+        List<DocumentChunk> chunks = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return chunks;
+        }
+
+        if (text.length() <= CHUNK_SIZE) {
+            int[] span = trimSpan(text, 0, text.length());
+            if (span[1] > span[0]) {
+                addChunk(chunks, docId, span[0], span[1], text.substring(span[0], span[1]));
+            }
+            return chunks;
+        }
+
+        StringBuilder currentChunk = new StringBuilder(CHUNK_SIZE);
+        int chunkStart = -1;
+        int chunkEnd = -1;
+        int lineStart = 0;
+
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && text.charAt(i) != '\n') {
+                continue;
+            }
+
+            int[] span = trimSpan(text, lineStart, i);
+            lineStart = i + 1;
+            int lineLength = span[1] - span[0];
+            if (lineLength == 0) {
+                continue;
+            }
+
+            if (lineLength > CHUNK_SIZE) {
+                // 超长行：先保存当前块，再按固定长度强制拆分
+                if (currentChunk.length() > 0) {
+                    addChunk(chunks, docId, chunkStart, chunkEnd, currentChunk.toString());
+                    currentChunk.setLength(0);
+                }
+                for (int j = span[0]; j < span[1]; j += CHUNK_SIZE) {
+                    int[] piece = trimSpan(text, j, Math.min(j + CHUNK_SIZE, span[1]));
+                    addChunk(chunks, docId, piece[0], piece[1], text.substring(piece[0], piece[1]));
+                }
+                continue;
+            }
+
+            if (currentChunk.length() + lineLength + 1 > CHUNK_SIZE && currentChunk.length() > 0) {
+                addChunk(chunks, docId, chunkStart, chunkEnd, currentChunk.toString());
+                currentChunk.setLength(0);
+            }
+            if (currentChunk.length() > 0) {
+                currentChunk.append('\n');
+            } else {
+                chunkStart = span[0];
+            }
+            currentChunk.append(text, span[0], span[1]);
+            chunkEnd = span[1];
+        }
+
+        if (currentChunk.length() > 0) {
+            addChunk(chunks, docId, chunkStart, chunkEnd, currentChunk.toString());
+        }
+
+        // 如果没有生成任何块，使用简单分块
+        if (chunks.isEmpty()) {
+            for (int i = 0; i < text.length(); i += CHUNK_SIZE) {
+                int[] span = trimSpan(text, i, Math.min(i + CHUNK_SIZE, text.length()));
+                if (span[1] > span[0]) {
+                    addChunk(chunks, docId, span[0], span[1], text.substring(span[0], span[1]));
+                }
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * 根据分页偏移为分块标注起止页码
+     */
+    private void assignPages(List<DocumentChunk> chunks, int[] pageOffsets) {
+        if (pageOffsets.length == 0) {
+            return;
+        }
+        for (DocumentChunk chunk : chunks) {
+            chunk.setStartPage(pageAt(pageOffsets, chunk.getStartOffset()));
+            chunk.setEndPage(pageAt(pageOffsets, Math.max(chunk.getStartOffset(), chunk.getEndOffset() - 1)));
+        }
+    }
+
+    /**
+     * 偏移所在页码（从1开始）：起始偏移不大于 offset 的最后一页
+     */
+    private int pageAt(int[] pageOffsets, int offset) {
+        int index = Arrays.binarySearch(pageOffsets, offset);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            // 空白页与下一页起始偏移相同，取最后一个
+            while (index + 1 < pageOffsets.length && pageOffsets[index + 1] == offset) {
+                index++;
+            }
+        }
+        return Math.max(index, 0) + 1;
+    }
+
+    private int[] parsePageOffsets(String value) {
+        if (value == null || value.isEmpty()) {
+            return new int[0];
+        }
+        return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private void addChunk(List<DocumentChunk> chunks, Long docId, int start, int end, String content) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setDocId(docId);
+        chunk.setChunkIndex(chunks.size());
+        chunk.setStartOffset(start);
+        chunk.setEndOffset(end);
+        chunk.setChunkContent(content);
+        chunk.setContentHash(DigestUtil.sha256Hex(content));
+        chunks.add(chunk);
+    }
+
+    /**
+     * 计算 text[start, end) 去除首尾空白后的区间（与 String.trim() 语义一致）
+     */
+    private int[] trimSpan(String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return new int[]{start, end};
+    }
+}
@@ -0,0 +1,140 @@
+package com.aimanager.knowledge.service;
+
+import com.aimanager.knowledge.mapper.DocumentMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文档计数服务
+ * 浏览/下载次数先在内存中用 LongAdder 累加，定时合并为一条批量 UPDATE 写回数据库，
+ * 读请求不再产生写操作。计数为最终一致。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentCounterService {
+
+    private final DocumentMapper documentMapper;
+
+    private final ConcurrentHashMap<Long, LongAdder> pendingViews = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, LongAdder> pendingDownloads = new ConcurrentHashMap<>();
+
+    @Value("${document.counter.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    /**
+     * 记录一次浏览
+     */
+    public void recordView(Long docId) {
+        pendingViews.computeIfAbsent(docId, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * 记录一次下载
+     */
+    public void recordDownload(Long docId) {
+        pendingDownloads.computeIfAbsent(docId, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * 尚未写回数据库的浏览次数
+     */
+    public long pendingViews(Long docId) {
+        return pending(pendingViews, docId);
+    }
+
+    /**
+     * 尚未写回数据库的下载次数
+     */
+    public long pendingDownloads(Long docId) {
+        return pending(pendingDownloads, docId);
+    }
+
+    /**
+     * 将累计的计数增量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${document.counter.flush-interval-ms:5000}")
+    public void flush() {
+        Map<Long, Long> views = drain(pendingViews);
+        Map<Long, Long> downloads = drain(pendingDownloads);
+        if (views.isEmpty() && downloads.isEmpty()) {
+            return;
+        }
+
+        Set<Long> docIds = new HashSet<>(views.keySet());
+        docIds.addAll(downloads.keySet());
+
+        List<Map<String, Object>> deltas = new ArrayList<>(docIds.size());
+        for (Long docId : docIds) {
+            Map<String, Object> delta = new HashMap<>();
+            delta.put("docId", docId);
+            delta.put("views", views.getOrDefault(docId, 0L));
+            delta.put("downloads", downloads.getOrDefault(docId, 0L));
+            deltas.add(delta);
+        }
+
+        for (int i = 0; i < deltas.size(); i += flushBatchSize) {
+            List<Map<String, Object>> batch = deltas.subList(i, Math.min(i + flushBatchSize, deltas.size()));
+            try {
+                documentMapper.incrementCounters(batch);
+            } catch (Exception e) {
+                // 写回失败时把增量放回，下次再试
+                log.error("文档计数写回失败，将在下次重试: size={}, error={}", batch.size(), e.getMessage());
+                for (Map<String, Object> delta : batch) {
+                    Long docId = (Long) delta.get("docId");
+                    restore(pendingViews, docId, (Long) delta.get("views"));
+                    restore(pendingDownloads, docId, (Long) delta.get("downloads"));
+                }
+            }
+        }
+
+        log.debug("文档计数已写回: 文档数={}", docIds.size());
+    }
+
+    /**
+     * 停机前写回剩余计数
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private long pending(ConcurrentHashMap<Long, LongAdder> counters, Long docId) {
+        LongAdder adder = counters.get(docId);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    private void restore(ConcurrentHashMap<Long, LongAdder> counters, Long docId, long value) {
+        if (value > 0) {
+            counters.computeIfAbsent(docId, k -> new LongAdder()).add(value);
+        }
+    }
+
+    /**
+     * 取出并清零所有非零计数
+     * 条目不删除（条目数以文档数为上限），避免与并发的 increment 竞争导致计数丢失
+     */
+    private Map<Long, Long> drain(ConcurrentHashMap<Long, LongAdder> counters) {
+        Map<Long, Long> drained = new HashMap<>();
+        counters.forEach((docId, adder) -> {
+            long value = adder.sumThenReset();
+            if (value > 0) {
+                drained.put(docId, value);
+            }
+        });
+        return drained;
+    }
+}
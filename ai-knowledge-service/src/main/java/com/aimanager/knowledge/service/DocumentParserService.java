@@ -2,36 +2,51 @@ package com.aimanager.knowledge.service;
 
 import com.aimanager.common.exception.BusinessException;
 import com.aimanager.common.result.ResultCode;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.Splitter;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFParagraph;
-import org.apache.poi.xwpf.usermodel.XWPFTable;
-import org.apache.poi.xwpf.usermodel.XWPFTableRow;
-import org.apache.poi.xwpf.usermodel.XWPFTableCell;
-import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 文档解析服务
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class DocumentParserService {
+
+    @Qualifier("pdfParseExecutor")
+    private final ExecutorService pdfParseExecutor;
+
+    @Value("${document.parse.pdf-pages-per-task:50}")
+    private int pdfPagesPerTask;
     
     /**
-     * 解析文档内容
+     * 解析文档内容（从落盘的文件读取）
+     *
+     * @param file 文件路径
+     * @param filename 原始文件名（用于判断类型）
      */
-    public String parseDocument(MultipartFile file) throws IOException {
-        String filename = file.getOriginalFilename();
+    public ParsedDocument parseDocument(Path file, String filename) throws IOException {
         if (filename == null) {
             throw new BusinessException(ResultCode.DOCUMENT_PARSE_ERROR);
         }
@@ -40,72 +55,146 @@ public class DocumentParserService {
         
         return switch (extension) {
             case "pdf" -> parsePdf(file);
-            case "doc", "docx" -> parseWord(file);
-            case "txt", "md" -> parseText(file);
+            case "doc", "docx" -> ParsedDocument.of(parseWord(file));
+            case "txt", "md" -> ParsedDocument.of(parseText(file));
             default -> throw new BusinessException(ResultCode.FILE_TYPE_ERROR);
         };
     }
     
     /**
      * 解析PDF文档
+     * 页数不超过一个页段时直接提取；否则只加载一次源文档并按页段拆分为临时文件，
+     * 各页段在线程池中并行提取（PDDocument 非线程安全，每个任务只加载自己的页段），任一页段失败时取消其余页段。
+     * 解析缓冲使用临时文件而非堆内存；各页文本按页序拼接并记录每页起始偏移。
      */
-    private String parsePdf(MultipartFile file) throws IOException {
-        try (PDDocument document = PDDocument.load(file.getInputStream())) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(document);
-            log.info("PDF解析成功，页数：{}", document.getNumberOfPages());
-            return text;
+    private ParsedDocument parsePdf(Path file) throws IOException {
+        List<Path> parts = new ArrayList<>();
+        try {
+            int pageCount;
+            List<String> pages = null;
+            try (PDDocument document = loadPdf(file)) {
+                pageCount = document.getNumberOfPages();
+                if (pageCount <= pdfPagesPerTask) {
+                    pages = extractPages(document, new AtomicBoolean());
+                } else {
+                    splitPdf(document, parts);
+                }
+            }
+            if (pages == null) {
+                pages = extractParallel(parts, pageCount);
+            }
+
+            StringBuilder content = new StringBuilder();
+            List<Integer> pageOffsets = new ArrayList<>(pages.size());
+            for (String page : pages) {
+                pageOffsets.add(content.length());
+                content.append(page);
+            }
+
+            log.info("PDF解析成功，页数：{}，页段数：{}，总字符数：{}", pageCount, Math.max(parts.size(), 1), content.length());
+            return new ParsedDocument(content.toString(), pageOffsets);
         } catch (Exception e) {
             log.error("PDF解析失败：{}", e.getMessage(), e);
             throw new BusinessException(ResultCode.DOCUMENT_PARSE_ERROR);
+        } finally {
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
         }
     }
-    
+
     /**
-     * 解析Word文档（支持段落和表格）
+     * 按页段拆分源文档，每个页段保存为一个临时文件
      */
-    private String parseWord(MultipartFile file) throws IOException {
-        try (XWPFDocument document = new XWPFDocument(file.getInputStream())) {
-            StringBuilder content = new StringBuilder();
-
-            int paragraphCount = 0;
-            int tableCount = 0;
+    private void splitPdf(PDDocument document, List<Path> parts) throws IOException {
+        Splitter splitter = new Splitter();
+        splitter.setSplitAtPage(pdfPagesPerTask);
+        List<PDDocument> splits = splitter.split(document);
+        try {
+            for (PDDocument split : splits) {
+                Path part = Files.createTempFile("pdf-part-", ".pdf");
+                parts.add(part);
+                split.save(part.toFile());
+            }
+        } finally {
+            for (PDDocument split : splits) {
+                split.close();
+            }
+        }
+    }
 
-            // 按文档元素顺序遍历（保持段落和表格的原始顺序）
-            for (IBodyElement element : document.getBodyElements()) {
-                if (element instanceof XWPFParagraph) {
-                    XWPFParagraph paragraph = (XWPFParagraph) element;
-                    String text = paragraph.getText();
-                    if (text != null && !text.trim().isEmpty()) {
-                        content.append(text.trim()).append("\n");
-                        paragraphCount++;
-                    }
-                } else if (element instanceof XWPFTable) {
-                    XWPFTable table = (XWPFTable) element;
-                    tableCount++;
-                    // 遍历表格的每一行
-                    for (XWPFTableRow row : table.getRows()) {
-                        StringBuilder rowContent = new StringBuilder();
-                        // 遍历行中的每个单元格
-                        for (XWPFTableCell cell : row.getTableCells()) {
-                            String cellText = cell.getText();
-                            if (cellText != null && !cellText.trim().isEmpty()) {
-                                if (rowContent.length() > 0) {
-                                    rowContent.append("\t");  // 用制表符分隔单元格
-                                }
-                                rowContent.append(cellText.trim());
-                            }
-                        }
-                        if (rowContent.length() > 0) {
-                            content.append(rowContent).append("\n");
-                        }
-                    }
-                    content.append("\n");  // 表格后空一行
+    /**
+     * 并行提取各页段的文本，按页段顺序合并；第一个失败的页段会取消其余页段
+     */
+    private List<String> extractParallel(List<Path> parts, int pageCount) throws IOException {
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>(parts.size());
+        for (Path part : parts) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try (PDDocument document = loadPdf(part)) {
+                    return extractPages(document, failed);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, pdfParseExecutor));
+        }
+        for (CompletableFuture<List<String>> future : futures) {
+            future.whenComplete((result, error) -> {
+                if (error != null && failed.compareAndSet(false, true)) {
+                    firstError.set(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                    futures.forEach(other -> other.cancel(true));
                 }
+            });
+        }
+
+        List<String> pages = new ArrayList<>(pageCount);
+        try {
+            for (CompletableFuture<List<String>> future : futures) {
+                pages.addAll(future.join());
+            }
+        } catch (CancellationException | CompletionException e) {
+            Throwable cause = firstError.get() != null ? firstError.get() : e;
+            throw new IOException("PDF页段解析失败: " + cause.getMessage(), cause);
+        }
+        return pages;
+    }
+
+    /**
+     * 逐页提取文档的文本；其他页段失败（cancelled 被置位）时提前停止
+     */
+    private List<String> extractPages(PDDocument document, AtomicBoolean cancelled) throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper();
+        int pageCount = document.getNumberOfPages();
+        List<String> pages = new ArrayList<>(pageCount);
+        for (int page = 1; page <= pageCount; page++) {
+            if (cancelled.get()) {
+                throw new CancellationException("其他页段解析失败，停止提取");
             }
+            stripper.setStartPage(page);
+            stripper.setEndPage(page);
+            pages.add(stripper.getText(document));
+        }
+        return pages;
+    }
+
+    private PDDocument loadPdf(Path file) throws IOException {
+        return PDDocument.load(file.toFile(), MemoryUsageSetting.setupTempFileOnly());
+    }
+    
+    /**
+     * 解析Word文档（支持段落和表格）
+     * 以 StAX 流式读取 document.xml，段落和表格行按文档顺序逐行输出
+     */
+    private String parseWord(Path file) throws IOException {
+        try {
+            StringBuilder content = new StringBuilder();
+            DocxTextExtractor extractor = new DocxTextExtractor();
+            extractor.extract(file, line -> content.append(line).append("\n"));
 
             log.info("Word解析成功，段落数：{}，表格数：{}，总字符数：{}",
-                paragraphCount, tableCount, content.length());
+                extractor.getParagraphCount(), extractor.getTableCount(), content.length());
             return content.toString();
         } catch (Exception e) {
             log.error("Word解析失败：{}", e.getMessage(), e);
@@ -116,9 +205,8 @@ public class DocumentParserService {
     /**
      * 解析文本文档
      */
-    private String parseText(MultipartFile file) throws IOException {
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+    private String parseText(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
             
             StringBuilder content = new StringBuilder();
             String line;
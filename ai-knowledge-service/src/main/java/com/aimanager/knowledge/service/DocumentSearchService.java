@@ -0,0 +1,575 @@
+package com.aimanager.knowledge.service;
+
+import com.aimanager.common.exception.BusinessException;
+import com.aimanager.common.result.ResultCode;
+import com.aimanager.knowledge.dto.DocumentSearchHitVO;
+import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.mapper.DocumentMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+import org.apache.lucene.analysis.cjk.CJKBigramFilter;
+import org.apache.lucene.analysis.cjk.CJKWidthFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 文档全文检索服务
+ * 基于本地 Lucene 索引，中日韩文本索引时同时输出单字和二元组（其他文本按标准分词），查询时用 CJKAnalyzer：
+ * 多字关键词按二元组匹配，单字关键词按单字匹配。在文档上传、删除时增量维护，关键词检索不再对 MySQL 的 content 做 LIKE 全表扫描。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentSearchService {
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_ID_VALUE = "idValue";
+    private static final String FIELD_CATEGORY = "categoryId";
+    private static final String FIELD_CATEGORY_STORED = "categoryIdStored";
+    private static final String FIELD_TITLE = "docTitle";
+    private static final String FIELD_CONTENT = "content";
+    private static final String FIELD_TAGS = "tags";
+    private static final String FIELD_CREATE_TIME = "createTime";
+
+    /**
+     * 没有创建时间的文档的排序值（倒序时排在最后，与数据库中 NULL 的位置一致）
+     */
+    private static final long MISSING_CREATE_TIME = Long.MIN_VALUE;
+
+    /**
+     * 文档列表顺序：create_time, id 倒序
+     */
+    private static final Sort LISTING_SORT = new Sort(
+            new SortField(FIELD_CREATE_TIME, SortField.Type.LONG, true),
+            new SortField(FIELD_ID_VALUE, SortField.Type.LONG, true));
+
+    /**
+     * 索引结构版本（提交数据中记录），与当前版本不一致时启动后重建
+     */
+    private static final String SCHEMA_VERSION_KEY = "schemaVersion";
+    private static final String SCHEMA_VERSION = "4";
+
+    /**
+     * 重建索引时每批读取的文档数
+     */
+    private static final int REBUILD_BATCH_SIZE = 50;
+
+    /**
+     * 正文字段：记录偏移量，供 UnifiedHighlighter 直接从倒排表定位高亮片段，无需重新分词
+     */
+    private static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_FIELD_TYPE.freeze();
+    }
+
+    private final DocumentMapper documentMapper;
+
+    @Value("${document.search.index-dir:./data/search-index}")
+    private String indexDir;
+
+    @Value("${document.search.snippet-passages:2}")
+    private int snippetPassages;
+
+    /**
+     * 索引分词器：与 CJKAnalyzer 相同，但中日韩文本额外输出单字，单字关键词也能命中
+     */
+    private final Analyzer indexAnalyzer = createIndexAnalyzer();
+
+    /**
+     * 查询分词器：多字关键词切成二元组，孤立的单字保持为单字
+     */
+    private final Analyzer queryAnalyzer = new CJKAnalyzer();
+    private FSDirectory directory;
+    private volatile IndexWriter indexWriter;
+    private volatile SearcherManager searcherManager;
+
+    /**
+     * 重建期间暂停刷新搜索器和提交，检索继续使用重建前的快照，不会看到清空后的部分索引；
+     * 增量写入与获取搜索器持有读锁，重建失败回滚并重新打开写入器时持有写锁
+     */
+    private final ReentrantReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+    private volatile boolean rebuilding;
+
+    /**
+     * 重建期间被增量索引或删除的文档ID，重建扫描结束后按数据库最新状态重新处理
+     */
+    private final Set<Long> touchedDuringRebuild = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = Path.of(indexDir);
+        Files.createDirectories(path);
+        directory = FSDirectory.open(path);
+        openWriter();
+
+        int numDocs = indexWriter.getDocStats().numDocs;
+        String schemaVersion = null;
+        if (indexWriter.getLiveCommitData() != null) {
+            for (Map.Entry<String, String> entry : indexWriter.getLiveCommitData()) {
+                if (SCHEMA_VERSION_KEY.equals(entry.getKey())) {
+                    schemaVersion = entry.getValue();
+                }
+            }
+        }
+        log.info("全文索引已打开: dir={}, 文档数={}, 结构版本={}", path.toAbsolutePath(), numDocs, schemaVersion);
+
+        if (numDocs == 0 || !SCHEMA_VERSION.equals(schemaVersion)) {
+            // 首次启动、索引丢失或索引结构升级时，在后台从数据库重建
+            Thread rebuildThread = new Thread(this::rebuildIndex, "search-index-rebuild");
+            rebuildThread.setDaemon(true);
+            rebuildThread.start();
+        }
+    }
+
+    /**
+     * 索引（或更新）单个文档
+     */
+    public void indexDocument(Document document) {
+        rebuildLock.readLock().lock();
+        try {
+            indexWriter.updateDocument(new Term(FIELD_ID, String.valueOf(document.getId())), toLuceneDocument(document));
+            refresh(document.getId());
+        } catch (IOException e) {
+            log.error("文档索引失败: docId={}, error={}", document.getId(), e.getMessage(), e);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中删除文档
+     */
+    public void removeDocument(Long docId) {
+        rebuildLock.readLock().lock();
+        try {
+            indexWriter.deleteDocuments(new Term(FIELD_ID, String.valueOf(docId)));
+            refresh(docId);
+        } catch (IOException e) {
+            log.error("删除文档索引失败: docId={}, error={}", docId, e.getMessage(), e);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 关键词检索，按相关度排序并返回高亮摘录
+     */
+    public Page<DocumentSearchHitVO> search(String keyword, Long categoryId, int pageNum, int pageSize) {
+        Query query = buildQuery(keyword, categoryId);
+        int from = (Math.max(pageNum, 1) - 1) * pageSize;
+
+        IndexSearcher searcher = null;
+        try {
+            searcher = acquire();
+            TopDocs topDocs = searcher.search(query, from + pageSize);
+            ScoreDoc[] pageDocs = from >= topDocs.scoreDocs.length
+                    ? new ScoreDoc[0]
+                    : Arrays.copyOfRange(topDocs.scoreDocs, from, topDocs.scoreDocs.length);
+
+            String[] highlights = new String[0];
+            if (pageDocs.length > 0) {
+                UnifiedHighlighter highlighter = UnifiedHighlighter.builder(searcher, indexAnalyzer)
+                        .withFormatter(new DefaultPassageFormatter("<em>", "</em>", "...", true))
+                        .withMaxLength(Integer.MAX_VALUE)
+                        .build();
+                highlights = highlighter.highlight(FIELD_CONTENT, query,
+                        new TopDocs(topDocs.totalHits, pageDocs), snippetPassages);
+            }
+
+            StoredFields storedFields = searcher.storedFields();
+            List<DocumentSearchHitVO> hits = new ArrayList<>(pageDocs.length);
+            for (int i = 0; i < pageDocs.length; i++) {
+                org.apache.lucene.document.Document stored = storedFields.document(pageDocs[i].doc,
+                        Set.of(FIELD_ID, FIELD_TITLE, FIELD_CATEGORY_STORED));
+                DocumentSearchHitVO hit = new DocumentSearchHitVO();
+                hit.setId(Long.parseLong(stored.get(FIELD_ID)));
+                hit.setDocTitle(stored.get(FIELD_TITLE));
+                Number category = stored.getField(FIELD_CATEGORY_STORED) == null
+                        ? null : stored.getField(FIELD_CATEGORY_STORED).numericValue();
+                hit.setCategoryId(category == null ? null : category.longValue());
+                hit.setScore(pageDocs[i].score);
+                hit.setHighlight(highlights[i]);
+                hits.add(hit);
+            }
+
+            Page<DocumentSearchHitVO> page = new Page<>(pageNum, pageSize, searcher.count(query));
+            page.setRecords(hits);
+            return page;
+        } catch (IOException e) {
+            log.error("全文检索失败: keyword={}, error={}", keyword, e.getMessage(), e);
+            throw new BusinessException(ResultCode.SYSTEM_ERROR.getCode(), "全文检索失败");
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * 关键词检索的游标分页：在索引内按 (createTime, id) 倒序排序（与数据库列表顺序一致），
+     * 返回游标之后的 limit 个命中，只读取 DocValues，不加载匹配文档的存储字段
+     *
+     * @param afterCreateTime 上一页最后一条的创建时间，首页与 afterId 同传 null
+     * @param afterId         上一页最后一条的文档ID
+     */
+    public List<SortedHit> searchAfter(String keyword, Long categoryId, LocalDateTime afterCreateTime, Long afterId,
+                                       int limit) {
+        Query query = buildQuery(keyword, categoryId);
+        IndexSearcher searcher = null;
+        try {
+            searcher = acquire();
+            // 排序值唯一（含 id），游标文档号取最大值即可跳过排序值相同的游标文档本身
+            FieldDoc after = afterId == null ? null
+                    : new FieldDoc(Integer.MAX_VALUE, Float.NaN, new Object[]{toEpochMillis(afterCreateTime), afterId});
+            TopDocs topDocs = searcher.searchAfter(after, query, limit, LISTING_SORT);
+            List<SortedHit> hits = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                Object[] fields = ((FieldDoc) scoreDoc).fields;
+                hits.add(new SortedHit((Long) fields[1], fromEpochMillis((Long) fields[0])));
+            }
+            return hits;
+        } catch (IOException e) {
+            log.error("全文检索失败: keyword={}, error={}", keyword, e.getMessage(), e);
+            throw new BusinessException(ResultCode.SYSTEM_ERROR.getCode(), "全文检索失败");
+        } finally {
+            release(searcher);
+        }
+    }
+
+    /**
+     * 按创建时间排序的命中（createTime 为 null 表示文档没有创建时间）
+     */
+    public record SortedHit(Long id, LocalDateTime createTime) {
+    }
+
+    /**
+     * 从数据库全量重建索引（按ID分批读取，不一次性加载所有文档内容）
+     * 重建期间不刷新搜索器也不提交，检索仍使用重建前的索引快照；重建完成提交后一次切换。
+     * 重建失败时回滚到开始前的提交点并重新打开写入器，再补上重建期间的增量变更，之后才恢复正常刷新。
+     *
+     * @return 索引的文档数
+     */
+    public synchronized int rebuildIndex() {
+        log.info("===== 开始重建全文索引 =====");
+        int total = 0;
+        touchedDuringRebuild.clear();
+        rebuildLock.writeLock().lock();
+        try {
+            // 先提交已有的增量变更，重建失败回滚时只退回到这个提交点
+            indexWriter.commit();
+            rebuilding = true;
+        } catch (IOException e) {
+            log.error("全文索引重建失败: {}", e.getMessage(), e);
+            return 0;
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+        try {
+            indexWriter.deleteAll();
+
+            long lastId = 0;
+            while (true) {
+                List<Document> batch = documentMapper.selectList(new LambdaQueryWrapper<Document>()
+                        .select(Document::getId, Document::getCategoryId, Document::getDocTitle,
+                                Document::getTags, Document::getContentData, Document::getCreateTime)
+                        .gt(Document::getId, lastId)
+                        .orderByAsc(Document::getId)
+                        .last("LIMIT " + REBUILD_BATCH_SIZE));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Document document : batch) {
+                    indexWriter.updateDocument(new Term(FIELD_ID, String.valueOf(document.getId())),
+                            toLuceneDocument(document));
+                }
+                total += batch.size();
+                lastId = batch.get(batch.size() - 1).getId();
+            }
+
+            // 重建期间增量变更过的文档可能被扫描到的旧数据覆盖，按数据库最新状态重新处理
+            reconcileTouched();
+
+            indexWriter.setLiveCommitData(Map.of(SCHEMA_VERSION_KEY, SCHEMA_VERSION).entrySet());
+            indexWriter.commit();
+            log.info("===== 全文索引重建完成: 文档数={} =====", total);
+        } catch (Exception e) {
+            log.error("全文索引重建失败，回滚到重建前的索引: {}", e.getMessage(), e);
+            total = 0;
+            recoverFromFailedRebuild();
+        } finally {
+            rebuildLock.writeLock().lock();
+            try {
+                rebuilding = false;
+                searcherManager.maybeRefresh();
+            } catch (IOException e) {
+                log.error("刷新全文索引搜索器失败: {}", e.getMessage(), e);
+            } finally {
+                rebuildLock.writeLock().unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 重建失败：回滚写入器（丢弃清空及重建写入的内容，写入器随之关闭），重新打开写入器与搜索器，
+     * 再按数据库最新状态补上重建期间的增量变更
+     */
+    private void recoverFromFailedRebuild() {
+        rebuildLock.writeLock().lock();
+        try {
+            SearcherManager previous = searcherManager;
+            indexWriter.rollback();
+            openWriter();
+            previous.close();
+        } catch (IOException e) {
+            log.error("重新打开全文索引失败: {}", e.getMessage(), e);
+            return;
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+        try {
+            reconcileTouched();
+            indexWriter.commit();
+        } catch (Exception e) {
+            log.error("补写重建期间的索引变更失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 打开索引写入器及其近实时搜索器
+     */
+    private void openWriter() throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(indexAnalyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        indexWriter = new IndexWriter(directory, config);
+        searcherManager = new SearcherManager(indexWriter, null);
+    }
+
+    /**
+     * 重新处理重建期间增量变更过的文档：数据库中仍存在的重新索引，已删除的从索引中删除
+     */
+    private void reconcileTouched() throws IOException {
+        while (!touchedDuringRebuild.isEmpty()) {
+            Set<Long> ids = new HashSet<>(touchedDuringRebuild);
+            touchedDuringRebuild.removeAll(ids);
+            Set<Long> existing = new HashSet<>();
+            for (Document document : documentMapper.selectList(new LambdaQueryWrapper<Document>()
+                    .select(Document::getId, Document::getCategoryId, Document::getDocTitle,
+                            Document::getTags, Document::getContentData, Document::getCreateTime)
+                    .in(Document::getId, ids))) {
+                indexWriter.updateDocument(new Term(FIELD_ID, String.valueOf(document.getId())),
+                        toLuceneDocument(document));
+                existing.add(document.getId());
+            }
+            for (Long id : ids) {
+                if (!existing.contains(id)) {
+                    indexWriter.deleteDocuments(new Term(FIELD_ID, String.valueOf(id)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 索引状态
+     */
+    public Map<String, Object> getIndexStats() {
+        rebuildLock.readLock().lock();
+        try {
+            return Map.of(
+                    "indexDir", Path.of(indexDir).toAbsolutePath().toString(),
+                    "numDocs", indexWriter.getDocStats().numDocs,
+                    "maxDoc", indexWriter.getDocStats().maxDoc);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 定时提交索引变更（写入即可检索，提交只影响持久化）
+     */
+    @Scheduled(fixedDelayString = "${document.search.commit-interval-ms:30000}")
+    public void commit() {
+        rebuildLock.readLock().lock();
+        try {
+            // 重建期间不提交，避免把清空后的部分索引持久化
+            if (!rebuilding && indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } catch (IOException e) {
+            log.error("全文索引提交失败: {}", e.getMessage(), e);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        commit();
+        searcherManager.close();
+        indexWriter.close();
+        directory.close();
+    }
+
+    private Query buildQuery(String keyword, Long categoryId) {
+        MultiFieldQueryParser parser = new MultiFieldQueryParser(
+                new String[]{FIELD_TITLE, FIELD_CONTENT, FIELD_TAGS}, queryAnalyzer,
+                Map.of(FIELD_TITLE, 3.0f, FIELD_CONTENT, 1.0f, FIELD_TAGS, 2.0f));
+        parser.setDefaultOperator(QueryParser.Operator.AND);
+
+        Query textQuery;
+        try {
+            textQuery = parser.parse(QueryParser.escape(keyword));
+        } catch (ParseException e) {
+            throw new BusinessException(ResultCode.PARAM_INVALID.getCode(), "检索关键词格式不正确");
+        }
+
+        if (categoryId == null) {
+            return textQuery;
+        }
+        return new BooleanQuery.Builder()
+                .add(textQuery, BooleanClause.Occur.MUST)
+                .add(LongPoint.newExactQuery(FIELD_CATEGORY, categoryId), BooleanClause.Occur.FILTER)
+                .build();
+    }
+
+    private org.apache.lucene.document.Document toLuceneDocument(Document document) {
+        org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+        doc.add(new StringField(FIELD_ID, String.valueOf(document.getId()), Field.Store.YES));
+        doc.add(new NumericDocValuesField(FIELD_ID_VALUE, document.getId()));
+        doc.add(new NumericDocValuesField(FIELD_CREATE_TIME, toEpochMillis(document.getCreateTime())));
+        if (document.getCategoryId() != null) {
+            doc.add(new LongPoint(FIELD_CATEGORY, document.getCategoryId()));
+            doc.add(new StoredField(FIELD_CATEGORY_STORED, document.getCategoryId()));
+        }
+        doc.add(new TextField(FIELD_TITLE, nullToEmpty(document.getDocTitle()), Field.Store.YES));
+        doc.add(new TextField(FIELD_TAGS, nullToEmpty(document.getTags()), Field.Store.NO));
+        doc.add(new Field(FIELD_CONTENT, nullToEmpty(document.getContent()), CONTENT_FIELD_TYPE));
+        return doc;
+    }
+
+    /**
+     * 增量变更后刷新搜索器；重建期间只记录变更的文档，由重建结束时统一处理
+     */
+    private void refresh(Long docId) throws IOException {
+        rebuildLock.readLock().lock();
+        try {
+            if (rebuilding) {
+                touchedDuringRebuild.add(docId);
+            } else {
+                searcherManager.maybeRefresh();
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取搜索器（持读锁，避免与重建失败后重新打开写入器交错）
+     */
+    private IndexSearcher acquire() throws IOException {
+        rebuildLock.readLock().lock();
+        try {
+            return searcherManager.acquire();
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    private void release(IndexSearcher searcher) {
+        if (searcher == null) {
+            return;
+        }
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            log.warn("释放索引搜索器失败: {}", e.getMessage());
+        }
+    }
+
+    private static Analyzer createIndexAnalyzer() {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer source = new StandardTokenizer();
+                TokenStream result = new CJKWidthFilter(source);
+                result = new LowerCaseFilter(result);
+                result = new CJKBigramFilter(result, CJKBigramFilter.HAN | CJKBigramFilter.HIRAGANA
+                        | CJKBigramFilter.KATAKANA | CJKBigramFilter.HANGUL, true);
+                return new TokenStreamComponents(source, new StopFilter(result, CJKAnalyzer.getDefaultStopSet()));
+            }
+
+            @Override
+            protected TokenStream normalize(String fieldName, TokenStream in) {
+                return new LowerCaseFilter(new CJKWidthFilter(in));
+            }
+        };
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time == null ? MISSING_CREATE_TIME : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        return millis == MISSING_CREATE_TIME
+                ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
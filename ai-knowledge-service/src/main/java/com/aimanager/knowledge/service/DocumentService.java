@@ -2,26 +2,47 @@ package com.aimanager.knowledge.service;
 
 import com.aimanager.common.exception.BusinessException;
 import com.aimanager.common.result.ResultCode;
+import com.aimanager.knowledge.dto.DocumentCursorPageVO;
+import com.aimanager.knowledge.dto.DocumentListVO;
+import com.aimanager.knowledge.dto.DocumentSearchHitVO;
 import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.entity.DocumentChunk;
 import com.aimanager.knowledge.mapper.DocumentMapper;
+import com.aimanager.knowledge.util.ContentCodec;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 /**
  * 文档服务
@@ -34,45 +55,129 @@ public class DocumentService {
     private final DocumentMapper documentMapper;
     private final FileStorageService fileStorageService;
     private final DocumentParserService documentParserService;
+    private final DocumentChunkService documentChunkService;
+    private final DocumentCacheService documentCacheService;
+    private final DocumentCounterService documentCounterService;
+    private final DocumentSearchService documentSearchService;
+    private final IngestionJobService ingestionJobService;
+    private final RevectorizeService revectorizeService;
+    private final ObjectCacheService objectCacheService;
+    @Qualifier("uploadExecutor")
+    private final ExecutorService uploadExecutor;
     private final RestTemplate restTemplate = new RestTemplate();
 
+    /**
+     * 列表查询的元数据列（不含 content）
+     */
+    private static final String[] LISTING_COLUMNS = {"id", "category_id", "doc_title", "doc_type", "file_size",
+            "tags", "view_count", "download_count", "status", "create_time", "update_time"};
+
+    /**
+     * 列表内容摘录的最大长度（同时是 content_snippet 列存储的长度）
+     */
+    private static final int MAX_SNIPPET_LENGTH = 500;
+
+    /**
+     * 压缩历史内容时每批读取的文档数
+     */
+    private static final int COMPRESS_BATCH_SIZE = 100;
+
     @Value("${vector.service.url:http://localhost:8085}")
     private String vectorServiceUrl;
+
+    @Value("${document.download.redirect:true}")
+    private boolean downloadRedirect;
+
+    @Value("${document.download.presign-expiry-seconds:300}")
+    private int downloadPresignExpirySeconds;
+
+    @Value("${document.upload.spool-dir:${java.io.tmpdir}/ai-knowledge-upload}")
+    private String uploadSpoolDir;
     
     /**
      * 上传文档
      */
     @Transactional(rollbackFor = Exception.class)
     public Document uploadDocument(Long categoryId, String title, MultipartFile file, String tags) {
-        try {
-            // 验证文件
-            validateFile(file);
-            
-            // 上传文件到MinIO
-            String filePath = fileStorageService.uploadFile(file);
-            
-            // 解析文档内容
-            String content = documentParserService.parseDocument(file);
+        // 验证文件
+        validateFile(file);
+
+        // 上传流只读取一次：落盘到临时文件并同时计算 SHA-256
+        try (SpooledUpload upload = SpooledUpload.spool(file, Path.of(uploadSpoolDir))) {
+
+            // 相同文件已上传过：复用已存储的对象和解析结果，向量由入库任务从源文档复制
+            Document source = findByFileHash(upload.getSha256());
+            String filePath;
+            byte[] contentData;
+            String contentSnippet;
+            String pageOffsets;
+            if (source != null && !lockSource(source.getId())) {
+                // 源文档在此期间已被删除，其对象可能已清理，按新文件上传
+                source = null;
+            }
+            if (source != null) {
+                log.info("检测到重复文件，复用已有文档：sourceId={}, sourceTitle={}", source.getId(), source.getDocTitle());
+                filePath = source.getFilePath();
+                contentData = source.getContentData();
+                contentSnippet = source.getContentSnippet();
+                pageOffsets = source.getPageOffsets();
+            } else {
+                // 上传文件到MinIO与解析文档内容并行进行，二者都从临时文件读取
+                CompletableFuture<String> storeFuture = CompletableFuture.supplyAsync(
+                        () -> fileStorageService.uploadFile(upload), uploadExecutor);
+                ParsedDocument parsed;
+                try {
+                    parsed = documentParserService.parseDocument(upload.getPath(), upload.getOriginalFilename());
+                } catch (RuntimeException | IOException e) {
+                    // 解析失败时等待上传结束并清理已上传的文件（临时文件须在上传读取完毕后才能删除）
+                    try {
+                        fileStorageService.deleteFile(joinUnwrapped(storeFuture));
+                    } catch (RuntimeException ignored) {
+                        // 上传本身也失败了，无需清理
+                    }
+                    throw e;
+                }
+                filePath = joinUnwrapped(storeFuture);
+                contentData = ContentCodec.encode(parsed.getContent());
+                contentSnippet = snippetOf(parsed.getContent());
+                pageOffsets = parsed.getPageOffsetsValue();
+            }
             
             // 创建文档记录
             Document document = new Document();
             document.setCategoryId(categoryId);
             document.setDocTitle(title);
-            document.setDocType(getFileExtension(file.getOriginalFilename()));
+            document.setDocType(getFileExtension(upload.getOriginalFilename()));
             document.setFilePath(filePath);
-            document.setFileSize(file.getSize());
-            document.setContent(content);
+            document.setFileSize(upload.getSize());
+            document.setFileHash(upload.getSha256());
+            document.setContentData(contentData);
+            document.setContentSnippet(contentSnippet);
+            document.setPageOffsets(pageOffsets);
             document.setTags(tags);
             document.setStatus(1); // 已发布
             document.setViewCount(0);
             document.setDownloadCount(0);
+            // 显式写入创建时间（精确到秒，与 DATETIME 列一致），全文索引按同一值排序
+            document.setCreateTime(LocalDateTime.now().withNano(0));
             
             documentMapper.insert(document);
 
-            log.info("文档上传成功：{}", title);
+            // 一次性分块并持久化，检索回填时直接按分块读取
+            documentChunkService.rebuildChunks(document);
+
+            // 事务提交后写入全文索引（回滚时索引中不会留下不存在的文档）
+            afterCommit(() -> documentSearchService.indexDocument(document));
 
-            // 异步调用向量化服务
-            vectorizeDocumentAsync(document.getId(), content);
+            // 创建入库任务，由任务队列异步完成向量化
+            ingestionJobService.enqueue(document.getId(), source != null ? source.getId() : null);
+
+            if (source != null) {
+                document.setDuplicateOf(source.getId());
+                document.setDuplicateOfTitle(source.getDocTitle());
+            }
+
+            log.info("文档上传成功：{}", title);
 
             return document;
             
@@ -83,42 +188,321 @@ public class DocumentService {
     }
     
     /**
-     * 分页查询文档
+     * 按文件哈希查找已上传的文档（最早的一份）
+     */
+    private Document findByFileHash(String fileHash) {
+        return documentMapper.selectOne(new LambdaQueryWrapper<Document>()
+                .select(Document::getId, Document::getDocTitle, Document::getFilePath,
+                        Document::getContentData, Document::getContentSnippet, Document::getPageOffsets)
+                .eq(Document::getFileHash, fileHash)
+                .orderByAsc(Document::getId)
+                .last("LIMIT 1"));
+    }
+
+    /**
+     * 对复用的源文档加共享锁直到事务结束：与删除源文档互斥，
+     * 删除方提交后才能读到（此时返回 false），或等本次上传提交后删除方才能继续并看到新的引用
+     */
+    private boolean lockSource(Long sourceId) {
+        return documentMapper.exists(new LambdaQueryWrapper<Document>()
+                .eq(Document::getId, sourceId)
+                .last("LOCK IN SHARE MODE"));
+    }
+
+    /**
+     * 分页查询文档（只查元数据列，可选返回内容摘录）
+     * 带关键词时走全文索引，按相关度排序
      */
-    public Page<Document> pageDocuments(int pageNum, int pageSize, Long categoryId, String keyword) {
+    public Page<DocumentListVO> pageDocuments(int pageNum, int pageSize, Long categoryId, String keyword, int snippetLength) {
+        if (keyword != null && !keyword.isEmpty()) {
+            return searchDocumentPage(pageNum, pageSize, categoryId, keyword, snippetLength);
+        }
+
         Page<Document> page = new Page<>(pageNum, pageSize);
-        LambdaQueryWrapper<Document> wrapper = new LambdaQueryWrapper<>();
-        
+        QueryWrapper<Document> wrapper = listingWrapper(categoryId, snippetLength);
+        wrapper.orderByDesc("create_time", "id");
+
+        Page<Document> result = documentMapper.selectPage(page, wrapper);
+
+        Page<DocumentListVO> pageResult = new Page<>(result.getCurrent(), result.getSize(), result.getTotal());
+        pageResult.setRecords(result.getRecords().stream()
+                .map(doc -> convertToListVO(doc, snippetLength))
+                .toList());
+        return pageResult;
+    }
+
+    /**
+     * 游标分页查询文档（按 create_time, id 倒序的 keyset 分页，翻页深度不影响性能）
+     * 带关键词时在全文索引内按同样的顺序排序并从游标处取一页，只回表查询本页的文档
+     *
+     * @param cursor 上一页返回的 nextCursor，首页传空
+     */
+    public DocumentCursorPageVO listDocuments(String cursor, int pageSize, Long categoryId, String keyword, int snippetLength) {
+        if (keyword != null && !keyword.isEmpty()) {
+            return searchDocumentCursorPage(cursor, pageSize, categoryId, keyword, snippetLength);
+        }
+
+        DocumentCursorPageVO result = new DocumentCursorPageVO();
+        List<Document> documents = documentMapper.selectList(cursorWrapper(cursor, pageSize, categoryId, snippetLength));
+
+        boolean hasMore = documents.size() > pageSize;
+        if (hasMore) {
+            documents = documents.subList(0, pageSize);
+        }
+
+        result.setRecords(documents.stream().map(doc -> convertToListVO(doc, snippetLength)).toList());
+        result.setHasMore(hasMore);
+        if (hasMore) {
+            Document last = documents.get(documents.size() - 1);
+            result.setNextCursor(last.getCreateTime() + "_" + last.getId());
+        }
+        return result;
+    }
+
+    /**
+     * 关键词游标分页：索引返回游标之后的 pageSize + 1 个命中（多取一个用于判断是否还有下一页），
+     * 按命中顺序回表；下一页游标取自索引中的排序值，本页文档恰好已删除时也能继续翻页
+     */
+    private DocumentCursorPageVO searchDocumentCursorPage(String cursor, int pageSize, Long categoryId, String keyword,
+                                                          int snippetLength) {
+        Cursor position = parseCursor(cursor);
+        List<DocumentSearchService.SortedHit> hits = documentSearchService.searchAfter(keyword, categoryId,
+                position == null ? null : position.createTime(), position == null ? null : position.id(), pageSize + 1);
+
+        boolean hasMore = hits.size() > pageSize;
+        if (hasMore) {
+            hits = hits.subList(0, pageSize);
+        }
+
+        List<Document> documents = List.of();
+        if (!hits.isEmpty()) {
+            QueryWrapper<Document> wrapper = listingWrapper(null, snippetLength);
+            wrapper.in("id", hits.stream().map(DocumentSearchService.SortedHit::id).toList());
+            Map<Long, Document> byId = documentMapper.selectList(wrapper).stream()
+                    .collect(Collectors.toMap(Document::getId, doc -> doc));
+            documents = hits.stream().map(hit -> byId.get(hit.id())).filter(Objects::nonNull).toList();
+        }
+
+        DocumentCursorPageVO result = new DocumentCursorPageVO();
+        result.setRecords(documents.stream().map(doc -> convertToListVO(doc, snippetLength)).toList());
+        result.setHasMore(hasMore);
+        if (hasMore) {
+            DocumentSearchService.SortedHit last = hits.get(hits.size() - 1);
+            result.setNextCursor(last.createTime() + "_" + last.id());
+        }
+        return result;
+    }
+
+    /**
+     * 构建游标分页查询条件：游标之后按 create_time, id 倒序取 pageSize + 1 条（多取一条用于判断是否还有下一页）
+     */
+    private QueryWrapper<Document> cursorWrapper(String cursor, int pageSize, Long categoryId, int snippetLength) {
+        QueryWrapper<Document> wrapper = listingWrapper(categoryId, snippetLength);
+        Cursor position = parseCursor(cursor);
+        if (position != null) {
+            wrapper.and(w -> w.lt("create_time", position.createTime())
+                    .or(o -> o.eq("create_time", position.createTime()).lt("id", position.id())));
+        }
+        wrapper.orderByDesc("create_time", "id");
+        wrapper.last("LIMIT " + (pageSize + 1));
+        return wrapper;
+    }
+
+    /**
+     * 解析游标（格式：createTime_id），首页为空时返回 null
+     */
+    private Cursor parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        int separator = cursor.lastIndexOf('_');
+        try {
+            return new Cursor(LocalDateTime.parse(cursor.substring(0, separator)),
+                    Long.parseLong(cursor.substring(separator + 1)));
+        } catch (Exception e) {
+            throw new BusinessException(ResultCode.PARAM_INVALID.getCode(), "游标格式不正确");
+        }
+    }
+
+    /**
+     * 游标位置：上一页最后一条的 create_time 与 id
+     */
+    private record Cursor(LocalDateTime createTime, Long id) {
+    }
+
+    /**
+     * 全文检索文档（按相关度排序，返回高亮摘录）
+     */
+    public Page<DocumentSearchHitVO> searchDocuments(String keyword, Long categoryId, int pageNum, int pageSize) {
+        return documentSearchService.search(keyword, categoryId, pageNum, pageSize);
+    }
+
+    /**
+     * 关键词分页：按全文索引的相关度顺序返回列表VO，摘录使用高亮片段
+     */
+    private Page<DocumentListVO> searchDocumentPage(int pageNum, int pageSize, Long categoryId, String keyword, int snippetLength) {
+        Page<DocumentSearchHitVO> hits = documentSearchService.search(keyword, categoryId, pageNum, pageSize);
+        Page<DocumentListVO> pageResult = new Page<>(pageNum, pageSize, hits.getTotal());
+        if (hits.getRecords().isEmpty()) {
+            pageResult.setRecords(List.of());
+            return pageResult;
+        }
+
+        Map<Long, Document> documents = new HashMap<>();
+        documentMapper.selectList(listingWrapper(null, 0)
+                        .in("id", hits.getRecords().stream().map(DocumentSearchHitVO::getId).toList()))
+                .forEach(doc -> documents.put(doc.getId(), doc));
+
+        List<DocumentListVO> records = new ArrayList<>(hits.getRecords().size());
+        for (DocumentSearchHitVO hit : hits.getRecords()) {
+            Document document = documents.get(hit.getId());
+            if (document == null) {
+                continue;
+            }
+            DocumentListVO vo = convertToListVO(document, 0);
+            if (snippetLength > 0) {
+                vo.setSnippet(hit.getHighlight());
+            }
+            records.add(vo);
+        }
+        pageResult.setRecords(records);
+        return pageResult;
+    }
+
+    /**
+     * 构建列表查询条件：只选择元数据列，需要摘录时读取 content_snippet；
+     * 尚未回填摘录的历史文档才读取（压缩的）content，映射到 contentData 后解压前缀
+     */
+    private QueryWrapper<Document> listingWrapper(Long categoryId, int snippetLength) {
+        QueryWrapper<Document> wrapper = new QueryWrapper<>();
+        List<String> columns = new ArrayList<>(List.of(LISTING_COLUMNS));
+        if (snippetLength > 0) {
+            columns.add("content_snippet");
+            columns.add("IF(content_snippet IS NULL, content, NULL) AS contentData");
+        }
+        wrapper.select(columns.toArray(new String[0]));
+
         if (categoryId != null) {
-            wrapper.eq(Document::getCategoryId, categoryId);
+            wrapper.eq("category_id", categoryId);
         }
-        
-        if (keyword != null && !keyword.isEmpty()) {
-            wrapper.and(w -> w.like(Document::getDocTitle, keyword)
-                    .or().like(Document::getContent, keyword));
+        return wrapper;
+    }
+
+    /**
+     * 转换为列表VO
+     */
+    private DocumentListVO convertToListVO(Document document, int snippetLength) {
+        DocumentListVO vo = new DocumentListVO();
+        vo.setId(document.getId());
+        vo.setCategoryId(document.getCategoryId());
+        vo.setDocTitle(document.getDocTitle());
+        vo.setDocType(document.getDocType());
+        vo.setFileSize(document.getFileSize());
+        vo.setTags(document.getTags());
+        vo.setViewCount(document.getViewCount());
+        vo.setDownloadCount(document.getDownloadCount());
+        vo.setStatus(document.getStatus());
+        vo.setCreateTime(document.getCreateTime());
+        vo.setUpdateTime(document.getUpdateTime());
+        if (snippetLength > 0) {
+            int length = Math.min(snippetLength, MAX_SNIPPET_LENGTH);
+            String snippet = document.getContentSnippet();
+            if (snippet != null) {
+                vo.setSnippet(snippet.length() > length ? snippet.substring(0, length) : snippet);
+            } else {
+                // 历史文档没有摘录列：只流式解压摘录所需的前若干字符
+                vo.setSnippet(ContentCodec.decodePrefix(document.getContentData(), length));
+            }
         }
-        
-        wrapper.orderByDesc(Document::getCreateTime);
-        
-        return documentMapper.selectPage(page, wrapper);
+        return vo;
+    }
+
+    /**
+     * 截取正文前 MAX_SNIPPET_LENGTH 个字符作为摘录
+     */
+    private static String snippetOf(String content) {
+        if (content == null) {
+            return null;
+        }
+        return content.length() > MAX_SNIPPET_LENGTH ? content.substring(0, MAX_SNIPPET_LENGTH) : content;
     }
     
+    /**
+     * 获取下载所需的文档元数据（不读取 content）
+     */
+    public Document getDownloadDocument(Long id) {
+        Document document = documentMapper.selectOne(new LambdaQueryWrapper<Document>()
+                .select(Document::getId, Document::getDocTitle, Document::getDocType,
+                        Document::getFilePath, Document::getFileSize)
+                .eq(Document::getId, id));
+        if (document == null) {
+            throw new BusinessException(ResultCode.DOCUMENT_NOT_FOUND);
+        }
+        if (document.getFileSize() == null) {
+            document.setFileSize(fileStorageService.statFile(document.getFilePath()).size());
+        }
+        return document;
+    }
+
+    /**
+     * 是否通过预签名地址重定向下载
+     */
+    public boolean isDownloadRedirect() {
+        return downloadRedirect;
+    }
+
+    /**
+     * 生成文档文件的预签名下载地址
+     */
+    public String getPresignedDownloadUrl(Document document, String contentDisposition) {
+        return fileStorageService.getPresignedDownloadUrl(
+                document.getFilePath(), contentDisposition, downloadPresignExpirySeconds);
+    }
+
+    /**
+     * 写出文档文件的指定字节范围
+     * 文件经本地磁盘缓存读取：命中时从本地文件读出写给客户端，未命中时边从 MinIO 下载边写出，重复下载不再访问 MinIO
+     */
+    public void writeDownloadRange(Document document, long offset, long length, OutputStream out) throws IOException {
+        objectCacheService.transferTo(document.getFilePath(), offset, length, out);
+    }
+
+    /**
+     * 记录一次下载（内存累加，定时批量写回）
+     */
+    public void recordDownload(Long id) {
+        documentCounterService.recordDownload(id);
+    }
+
     /**
      * 获取文档详情
      */
     public Document getDocumentById(Long id) {
-        Document document = documentMapper.selectById(id);
+        Document document = getCachedDocument(id);
         if (document == null) {
             throw new BusinessException(ResultCode.DOCUMENT_NOT_FOUND);
         }
 
-        // 增加浏览次数
-        document.setViewCount(document.getViewCount() + 1);
-        documentMapper.updateById(document);
+        // 增加浏览次数（内存累加，定时批量写回）
+        documentCounterService.recordView(id);
+
+        // 缓存中的计数是加载时的快照，返回前换成数据库当前值加上尚未写回的增量
+        Document counters = documentMapper.selectOne(new LambdaQueryWrapper<Document>()
+                .select(Document::getId, Document::getViewCount, Document::getDownloadCount)
+                .eq(Document::getId, id));
+        if (counters != null) {
+            document.setViewCount((int) (nullToZero(counters.getViewCount()) + documentCounterService.pendingViews(id)));
+            document.setDownloadCount((int) (nullToZero(counters.getDownloadCount())
+                    + documentCounterService.pendingDownloads(id)));
+        }
 
         return document;
     }
 
+    private static long nullToZero(Integer value) {
+        return value == null ? 0 : value;
+    }
+
     /**
      * 获取文档的指定分块内容
      *
@@ -127,131 +511,152 @@ public class DocumentService {
      * @return 分块内容和相关信息
      */
     public Map<String, Object> getDocumentChunk(Long docId, Integer chunkIndex) {
-        Document document = documentMapper.selectById(docId);
+        Document document = documentMapper.selectOne(new LambdaQueryWrapper<Document>()
+                .select(Document::getId, Document::getDocTitle)
+                .eq(Document::getId, docId));
         if (document == null) {
             throw new BusinessException(ResultCode.DOCUMENT_NOT_FOUND);
         }
 
-        String content = document.getContent();
-        if (content == null || content.isEmpty()) {
-            Map<String, Object> result = new HashMap<>();
-            result.put("docId", docId);
-            result.put("docTitle", document.getDocTitle());
-            result.put("chunkIndex", chunkIndex);
-            result.put("chunkContent", "");
-            result.put("totalChunks", 0);
-            return result;
-        }
-
-        // 使用与向量化时相同的分块逻辑
-        int chunkSize = 400;  // 与TextChunkService保持一致
-        List<String> chunks = smartChunk(content, chunkSize);
-
-        String chunkContent = "";
-        if (chunkIndex >= 0 && chunkIndex < chunks.size()) {
-            chunkContent = chunks.get(chunkIndex);
-        }
-
         Map<String, Object> result = new HashMap<>();
         result.put("docId", docId);
         result.put("docTitle", document.getDocTitle());
         result.put("chunkIndex", chunkIndex);
-        result.put("chunkContent", chunkContent);
-        result.put("totalChunks", chunks.size());
+
+        // 分块数组已缓存时直接取，否则只查询这一个分块和分块总数，不加载整篇文档或整个分块数组
+        List<DocumentChunk> cached = documentCacheService.getChunksIfPresent(docId);
+        int totalChunks = cached != null ? cached.size()
+                : documentChunkService.countChunks(List.of(docId)).getOrDefault(docId, 0);
+        if (cached != null) {
+            result.put("chunkContent", chunkContent(cached, chunkIndex));
+        } else if (totalChunks > 0) {
+            DocumentChunk chunk = chunkIndex == null ? null : documentChunkService.getChunk(docId, chunkIndex);
+            result.put("chunkContent", chunk == null ? "" : chunk.getChunkContent());
+        } else {
+            // 历史文档尚未持久化分块，补齐后读取
+            List<DocumentChunk> chunks = getCachedChunks(docId);
+            totalChunks = chunks.size();
+            result.put("chunkContent", chunkContent(chunks, chunkIndex));
+        }
+        result.put("totalChunks", totalChunks);
 
         return result;
     }
 
     /**
-     * 批量获取多个分块内容
+     * 批量获取多个分块内容（按请求顺序返回）
+     * 文档标题一次查询，未缓存的分块按文档一次批量查询，不再逐个分块查询文档
+     *
+     * @param chunkInfos 每个元素包含 docId、chunkIndex，可选 score
      */
     public List<Map<String, Object>> getDocumentChunks(List<Map<String, Object>> chunkInfos) {
-        return chunkInfos.stream().map(info -> {
+        if (chunkInfos == null || chunkInfos.isEmpty()) {
+            return List.of();
+        }
+
+        // 1. 校验参数并按文档分组
+        Set<Long> docIds = new LinkedHashSet<>();
+        for (Map<String, Object> info : chunkInfos) {
+            if (!(info.get("docId") instanceof Number docId) || !(info.get("chunkIndex") instanceof Number)) {
+                throw new BusinessException(ResultCode.PARAM_INVALID.getCode(), "分块参数缺少 docId 或 chunkIndex");
+            }
+            docIds.add(docId.longValue());
+        }
+
+        // 2. 一次查询全部文档元数据（不加载 content）
+        Map<Long, String> titles = new HashMap<>();
+        documentMapper.selectList(new LambdaQueryWrapper<Document>()
+                        .select(Document::getId, Document::getDocTitle)
+                        .in(Document::getId, docIds))
+                .forEach(doc -> titles.put(doc.getId(), doc.getDocTitle()));
+
+        // 3. 分块数组：缓存命中直接使用，其余文档一次批量查询
+        Map<Long, List<DocumentChunk>> chunksByDoc = titles.isEmpty()
+                ? Map.of() : documentCacheService.getChunks(titles.keySet(), this::loadChunks);
+
+        // 4. 按请求顺序组装结果
+        List<Map<String, Object>> results = new ArrayList<>(chunkInfos.size());
+        for (Map<String, Object> info : chunkInfos) {
             Long docId = ((Number) info.get("docId")).longValue();
             Integer chunkIndex = ((Number) info.get("chunkIndex")).intValue();
-            Map<String, Object> chunkData = getDocumentChunk(docId, chunkIndex);
+            List<DocumentChunk> chunks = chunksByDoc.getOrDefault(docId, List.of());
+
+            Map<String, Object> chunkData = new HashMap<>();
+            chunkData.put("docId", docId);
+            chunkData.put("docTitle", titles.getOrDefault(docId, ""));
+            chunkData.put("chunkIndex", chunkIndex);
+            chunkData.put("chunkContent", chunkContent(chunks, chunkIndex));
+            chunkData.put("totalChunks", chunks.size());
             // 保留原始的score信息
             if (info.containsKey("score")) {
                 chunkData.put("score", info.get("score"));
             }
-            return chunkData;
-        }).toList();
+            results.add(chunkData);
+        }
+        return results;
     }
 
     /**
-     * 智能分块（与向量服务的分块逻辑一致）
+     * 获取文档缓存统计信息
      */
-    private List<String> smartChunk(String text, int chunkSize) {
-        if (text == null || text.isEmpty()) {
-            return List.of();
-        }
-
-        if (text.length() <= chunkSize) {
-            return List.of(text.trim());
-        }
-
-        List<String> chunks = new java.util.ArrayList<>();
-        StringBuilder currentChunk = new StringBuilder(chunkSize);
-        StringBuilder currentLine = new StringBuilder(200);
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new HashMap<>(documentCacheService.getStats());
+        stats.put("objectCache", objectCacheService.getStats());
+        return stats;
+    }
 
-        for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
+    /**
+     * 从缓存获取文档（含 content），未命中时查询数据库
+     */
+    private Document getCachedDocument(Long id) {
+        return documentCacheService.getDocument(id, documentMapper::selectById);
+    }
 
-            if (c == '\n') {
-                String line = currentLine.toString().trim();
-                if (!line.isEmpty()) {
-                    if (currentChunk.length() + line.length() + 1 > chunkSize) {
-                        if (currentChunk.length() > 0) {
-                            chunks.add(currentChunk.toString().trim());
-                            currentChunk.setLength(0);
-                        }
-                    }
-                    if (currentChunk.length() > 0) {
-                        currentChunk.append('\n');
-                    }
-                    currentChunk.append(line);
-                }
-                currentLine.setLength(0);
-            } else {
-                currentLine.append(c);
+    /**
+     * 从缓存获取文档的全部分块，未命中时查询数据库；
+     * 历史文档尚未持久化分块的，首次访问时补齐
+     */
+    private List<DocumentChunk> getCachedChunks(Long docId) {
+        List<DocumentChunk> chunks = documentCacheService.getChunks(docId, id -> {
+            List<DocumentChunk> persisted = documentChunkService.listChunks(id);
+            if (!persisted.isEmpty()) {
+                return persisted;
             }
-        }
+            Document document = getCachedDocument(id);
+            return document == null ? null : documentChunkService.rebuildChunks(document);
+        });
+        return chunks == null ? List.of() : chunks;
+    }
 
-        // 处理最后一行
-        if (currentLine.length() > 0) {
-            String line = currentLine.toString().trim();
-            if (!line.isEmpty()) {
-                if (currentChunk.length() + line.length() + 1 > chunkSize) {
-                    if (currentChunk.length() > 0) {
-                        chunks.add(currentChunk.toString().trim());
-                        currentChunk.setLength(0);
-                    }
-                }
-                if (currentChunk.length() > 0) {
-                    currentChunk.append('\n');
-                }
-                currentChunk.append(line);
+    /**
+     * 批量加载多个文档的分块：一次查询已持久化的分块，历史文档尚未持久化分块的一次读取内容后补齐
+     */
+    private Map<Long, List<DocumentChunk>> loadChunks(Set<? extends Long> docIds) {
+        Map<Long, List<DocumentChunk>> result = documentChunkService.listChunks(new ArrayList<>(docIds));
+        List<Long> missing = new ArrayList<>();
+        for (Long docId : docIds) {
+            if (!result.containsKey(docId)) {
+                missing.add(docId);
             }
         }
-
-        if (currentChunk.length() > 0) {
-            chunks.add(currentChunk.toString().trim());
-        }
-
-        // 如果没有生成任何块，使用简单分块
-        if (chunks.isEmpty()) {
-            for (int i = 0; i < text.length(); i += chunkSize) {
-                int end = Math.min(i + chunkSize, text.length());
-                String chunk = text.substring(i, end).trim();
-                if (!chunk.isEmpty()) {
-                    chunks.add(chunk);
-                }
+        if (!missing.isEmpty()) {
+            for (Document document : documentMapper.selectBatchIds(missing)) {
+                result.put(document.getId(), documentChunkService.rebuildChunks(document));
             }
         }
+        return result;
+    }
 
-        return chunks;
+    /**
+     * 取分块数组中指定索引的内容，越界时返回空串
+     */
+    private String chunkContent(List<DocumentChunk> chunks, Integer chunkIndex) {
+        if (chunkIndex == null || chunkIndex < 0 || chunkIndex >= chunks.size()) {
+            return "";
+        }
+        return chunks.get(chunkIndex).getChunkContent();
     }
-    
+
     /**
      * 删除文档
      */
@@ -262,15 +667,69 @@ public class DocumentService {
             throw new BusinessException(ResultCode.DOCUMENT_NOT_FOUND);
         }
         
-        // 删除文件
-        fileStorageService.deleteFile(document.getFilePath());
+        // 删除文件：重复上传的文档共用同一对象，事务提交后重新确认没有其他文档引用时才删除
+        // （复用该对象的上传会先对本文档加共享锁，提交前的引用在此时都已可见）
+        String filePath = document.getFilePath();
+        afterCommit(() -> deleteFileIfUnreferenced(filePath));
         
         // 删除数据库记录
         documentMapper.deleteById(id);
+        documentChunkService.deleteChunks(id);
+        ingestionJobService.cancel(id);
+
+        // 缓存与全文索引在事务提交后清理：回滚时文档仍可检索，提交前并发读取也不会把旧数据重新放回缓存
+        afterCommit(() -> {
+            documentCacheService.invalidate(id);
+            documentSearchService.removeDocument(id);
+        });
         
         log.info("文档删除成功：{}", document.getDocTitle());
     }
     
+    /**
+     * 对象没有任何文档引用时从 MinIO 删除
+     */
+    private void deleteFileIfUnreferenced(String filePath) {
+        try {
+            if (!documentMapper.exists(new LambdaQueryWrapper<Document>().eq(Document::getFilePath, filePath))) {
+                fileStorageService.deleteFile(filePath);
+                objectCacheService.forget(filePath);
+            }
+        } catch (RuntimeException e) {
+            log.error("删除文档文件失败：filePath={}, error={}", filePath, e.getMessage());
+        }
+    }
+
+    /**
+     * 在当前事务提交后执行（没有事务时立即执行），回滚时不执行
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 等待异步结果，业务异常原样抛出
+     */
+    private <T> T joinUnwrapped(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
     /**
      * 验证文件
      */
@@ -308,39 +767,6 @@ public class DocumentService {
         return lastDot > 0 ? filename.substring(lastDot + 1) : "";
     }
 
-    /**
-     * 异步调用向量化服务
-     */
-    private void vectorizeDocumentAsync(Long documentId, String content) {
-        new Thread(() -> {
-            try {
-                log.info("开始向量化文档: documentId={}", documentId);
-
-                // 构建请求参数
-                MultiValueMap<String, Object> params = new LinkedMultiValueMap<>();
-                params.add("documentId", documentId);
-                params.add("content", content);
-
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-                HttpEntity<MultiValueMap<String, Object>> entity = new HttpEntity<>(params, headers);
-
-                // 调用向量服务
-                String url = vectorServiceUrl + "/vector/vectorize";
-                ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
-
-                if (response.getStatusCode() == HttpStatus.OK) {
-                    log.info("文档向量化成功: documentId={}", documentId);
-                } else {
-                    log.error("文档向量化失败: documentId={}, status={}", documentId, response.getStatusCode());
-                }
-
-            } catch (Exception e) {
-                log.error("文档向量化异常: documentId={}, error={}", documentId, e.getMessage(), e);
-            }
-        }).start();
-    }
-
     /**
      * 同步调用向量化服务（返回分块数量）
      */
@@ -388,6 +814,54 @@ public class DocumentService {
         }
     }
 
+    /**
+     * 压缩历史未压缩的文档内容（content 列改为 LONGBLOB 前写入的纯文本），并回填缺失的内容摘录
+     *
+     * @return 更新的文档数
+     */
+    public int compressLegacyContent() {
+        int compressed = 0;
+        long lastId = 0;
+        while (true) {
+            List<Document> batch = documentMapper.selectList(new LambdaQueryWrapper<Document>()
+                    .select(Document::getId, Document::getContentData, Document::getContentSnippet)
+                    .gt(Document::getId, lastId)
+                    .orderByAsc(Document::getId)
+                    .last("LIMIT " + COMPRESS_BATCH_SIZE));
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (Document document : batch) {
+                byte[] data = document.getContentData();
+                boolean legacy = data != null && data.length > 0 && !ContentCodec.isCompressed(data);
+                boolean missingSnippet = data != null && document.getContentSnippet() == null;
+                if (legacy || missingSnippet) {
+                    LambdaUpdateWrapper<Document> update = new LambdaUpdateWrapper<Document>()
+                            .eq(Document::getId, document.getId())
+                            .setSql("update_time = update_time");
+                    if (legacy) {
+                        update.set(Document::getContentData, ContentCodec.encode(document.getContent()));
+                    }
+                    if (missingSnippet) {
+                        update.set(Document::getContentSnippet, ContentCodec.decodePrefix(data, MAX_SNIPPET_LENGTH));
+                    }
+                    documentMapper.update(null, update);
+                    compressed++;
+                }
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+        log.info("历史文档内容压缩完成: 文档数={}", compressed);
+        return compressed;
+    }
+
+    /**
+     * 查询文档入库进度
+     */
+    public Map<String, Object> getIngestionStatus(Long id) {
+        return ingestionJobService.getIngestionStatus(id);
+    }
+
     /**
      * 重新向量化单个文档
      */
@@ -403,62 +877,65 @@ public class DocumentService {
             return 0;
         }
 
+        documentChunkService.rebuildChunks(document);
+        documentCacheService.invalidate(id);
         return vectorizeDocumentSync(id, content);
     }
 
     /**
-     * 重新向量化所有文档
+     * 重新解析单个文档（解析器升级后使用）
+     * 原文件经本地磁盘缓存读取，重新分块、更新全文索引并创建入库任务
      */
-    public Map<String, Object> revectorizeAllDocuments() {
-        log.info("===== 开始重新向量化所有文档 =====");
-
-        // 1. 先清空向量库
-        try {
-            String resetUrl = vectorServiceUrl + "/vector/reset-collection";
-            restTemplate.postForEntity(resetUrl, null, String.class);
-            log.info("向量库已清空");
-        } catch (Exception e) {
-            log.error("清空向量库失败: {}", e.getMessage());
+    @Transactional(rollbackFor = Exception.class)
+    public Document reparseDocument(Long id) {
+        Document document = documentMapper.selectOne(new LambdaQueryWrapper<Document>()
+                .select(Document::getId, Document::getCategoryId, Document::getDocTitle,
+                        Document::getFilePath, Document::getTags, Document::getCreateTime)
+                .eq(Document::getId, id));
+        if (document == null) {
+            throw new BusinessException(ResultCode.DOCUMENT_NOT_FOUND);
         }
 
-        // 2. 查询所有文档
-        LambdaQueryWrapper<Document> wrapper = new LambdaQueryWrapper<>();
-        wrapper.isNotNull(Document::getContent);
-        wrapper.ne(Document::getContent, "");
-        List<Document> documents = documentMapper.selectList(wrapper);
-
-        log.info("找到 {} 个有内容的文档需要向量化", documents.size());
-
-        int successCount = 0;
-        int failCount = 0;
-        int totalChunks = 0;
-
-        for (Document doc : documents) {
-            try {
-                int chunks = vectorizeDocumentSync(doc.getId(), doc.getContent());
-                if (chunks > 0) {
-                    successCount++;
-                    totalChunks += chunks;
-                } else {
-                    failCount++;
-                }
-            } catch (Exception e) {
-                log.error("向量化文档失败: documentId={}, title={}, error={}",
-                    doc.getId(), doc.getDocTitle(), e.getMessage());
-                failCount++;
-            }
+        ParsedDocument parsed;
+        // 解析期间持有租约，缓存文件不会被淘汰
+        try (ObjectCacheService.Lease lease = objectCacheService.acquire(document.getFilePath())) {
+            parsed = documentParserService.parseDocument(lease.getPath(), document.getFilePath());
+        } catch (IOException e) {
+            log.error("文档重新解析失败：documentId={}, error={}", id, e.getMessage(), e);
+            throw new BusinessException(ResultCode.DOCUMENT_PARSE_ERROR);
         }
 
-        log.info("===== 重新向量化完成: 成功{}个, 失败{}个, 总分块数={} =====",
-            successCount, failCount, totalChunks);
+        document.setContent(parsed.getContent());
+        document.setContentSnippet(snippetOf(parsed.getContent()));
+        document.setPageOffsets(parsed.getPageOffsetsValue());
+        documentMapper.update(null, new LambdaUpdateWrapper<Document>()
+                .set(Document::getContentData, document.getContentData())
+                .set(Document::getContentSnippet, document.getContentSnippet())
+                .set(Document::getPageOffsets, document.getPageOffsets())
+                .eq(Document::getId, id));
+
+        documentChunkService.rebuildChunks(document);
+        ingestionJobService.enqueue(id);
+        afterCommit(() -> {
+            documentCacheService.invalidate(id);
+            documentSearchService.indexDocument(document);
+        });
+
+        log.info("文档重新解析完成：documentId={}, 内容长度={}", id, parsed.getContent().length());
+        return document;
+    }
 
-        Map<String, Object> result = new HashMap<>();
-        result.put("totalDocuments", documents.size());
-        result.put("successCount", successCount);
-        result.put("failCount", failCount);
-        result.put("totalChunks", totalChunks);
+    /**
+     * 重新向量化所有文档（后台执行，返回任务进度）
+     */
+    public Map<String, Object> revectorizeAllDocuments() {
+        return revectorizeService.start();
+    }
 
-        return result;
+    /**
+     * 查询全量重新向量化进度
+     */
+    public Map<String, Object> getRevectorizeProgress() {
+        return revectorizeService.getProgress();
     }
 }
-
@@ -0,0 +1,205 @@
+package com.aimanager.knowledge.service;
+
+import lombok.Getter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * DOCX 流式文本提取
+ * 直接从 zip 中用 StAX 顺序读取主文档 XML，不构建 XWPFDocument DOM，内存占用与文档大小无关。
+ * 正文段落逐段输出，表格逐行输出（单元格以制表符分隔，单元格内段落以换行分隔），表格结束后输出一个空行。
+ */
+@Getter
+public class DocxTextExtractor {
+
+    private static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String OFFICE_DOCUMENT_REL = "/officeDocument";
+    private static final String DEFAULT_MAIN_PART = "word/document.xml";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private int paragraphCount;
+    private int tableCount;
+
+    /**
+     * 提取文本，每个段落或表格行调用一次 lineSink（不含换行符）
+     */
+    public void extract(Path file, Consumer<String> lineSink) throws IOException, XMLStreamException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            ZipEntry entry = zip.getEntry(findMainPart(zip));
+            if (entry == null) {
+                throw new IOException("DOCX缺少主文档部件");
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+                try {
+                    readBody(reader, lineSink);
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private void readBody(XMLStreamReader reader, Consumer<String> lineSink) throws XMLStreamException {
+        int depth = 0;
+        int bodyDepth = -1;
+        int tableLevel = 0;
+        int runDepth = 0;  // 当前所在 w:r 的嵌套层数（文本框内的 run 可能嵌套在外层 run 中）
+        StringBuilder paragraph = null;
+        StringBuilder row = null;
+        StringBuilder cell = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (!W_NS.equals(reader.getNamespaceURI())) {
+                    depth++;
+                    continue;
+                }
+                String name = reader.getLocalName();
+                StringBuilder target = cell != null ? cell : paragraph;
+
+                // w:t 的结束标签由 getElementText 一并消费，不计入深度
+                if ("t".equals(name)) {
+                    String text = reader.getElementText();
+                    if (target != null && runDepth > 0) {
+                        target.append(text);
+                    }
+                    continue;
+                }
+
+                depth++;
+                switch (name) {
+                    case "body" -> bodyDepth = depth;
+                    case "p" -> {
+                        if (depth == bodyDepth + 1) {
+                            paragraph = new StringBuilder();
+                        } else if (cell != null && cell.length() > 0) {
+                            cell.append('\n');  // 单元格内多个段落以换行分隔
+                        }
+                    }
+                    case "tbl" -> {
+                        if (++tableLevel == 1) {
+                            tableCount++;
+                        }
+                    }
+                    case "tr" -> {
+                        if (tableLevel == 1) {
+                            row = new StringBuilder();
+                        }
+                    }
+                    case "tc" -> {
+                        if (tableLevel == 1) {
+                            cell = new StringBuilder();
+                        }
+                    }
+                    case "r" -> runDepth++;
+                    case "tab" -> {
+                        if (target != null && runDepth > 0) {
+                            target.append('\t');
+                        }
+                    }
+                    case "br", "cr" -> {
+                        if (target != null && runDepth > 0) {
+                            target.append('\n');
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (W_NS.equals(reader.getNamespaceURI())) {
+                    switch (reader.getLocalName()) {
+                        case "p" -> {
+                            if (depth == bodyDepth + 1 && paragraph != null) {
+                                String text = paragraph.toString().trim();
+                                if (!text.isEmpty()) {
+                                    lineSink.accept(text);
+                                    paragraphCount++;
+                                }
+                                paragraph = null;
+                            }
+                        }
+                        case "tc" -> {
+                            if (tableLevel == 1 && cell != null) {
+                                String text = cell.toString().trim();
+                                if (!text.isEmpty() && row != null) {
+                                    if (row.length() > 0) {
+                                        row.append('\t');  // 用制表符分隔单元格
+                                    }
+                                    row.append(text);
+                                }
+                                cell = null;
+                            }
+                        }
+                        case "tr" -> {
+                            if (tableLevel == 1 && row != null) {
+                                if (row.length() > 0) {
+                                    lineSink.accept(row.toString());
+                                }
+                                row = null;
+                            }
+                        }
+                        case "tbl" -> {
+                            if (--tableLevel == 0) {
+                                lineSink.accept("");  // 表格后空一行
+                            }
+                        }
+                        case "r" -> runDepth--;
+                        default -> {
+                        }
+                    }
+                }
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * 从包关系中查找主文档部件路径，找不到时使用默认路径
+     */
+    private String findMainPart(ZipFile zip) throws IOException, XMLStreamException {
+        ZipEntry rels = zip.getEntry("_rels/.rels");
+        if (rels == null) {
+            return DEFAULT_MAIN_PART;
+        }
+        try (InputStream in = zip.getInputStream(rels)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && REL_NS.equals(reader.getNamespaceURI())
+                            && "Relationship".equals(reader.getLocalName())) {
+                        String type = reader.getAttributeValue(null, "Type");
+                        String target = reader.getAttributeValue(null, "Target");
+                        if (type != null && type.endsWith(OFFICE_DOCUMENT_REL) && target != null) {
+                            return target.startsWith("/") ? target.substring(1) : target;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return DEFAULT_MAIN_PART;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -3,13 +3,15 @@ package com.aimanager.knowledge.service;
 import com.aimanager.common.exception.BusinessException;
 import com.aimanager.common.result.ResultCode;
 import io.minio.*;
+import io.minio.http.Method;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -21,34 +23,38 @@ import java.util.UUID;
 public class FileStorageService {
     
     private final MinioClient minioClient;
+    @Qualifier("presignMinioClient")
+    private final MinioClient presignMinioClient;
     
     @Value("${minio.bucket-name:ai-knowledge}")
     private String bucketName;
     
+    private volatile boolean bucketReady;
+    
     /**
-     * 上传文件
+     * 上传文件（从落盘的临时文件读取，大文件由 MinIO 客户端自动分片上传）
      */
-    public String uploadFile(MultipartFile file) {
+    public String uploadFile(SpooledUpload upload) {
         try {
-            // 确保bucket存在
+            // 确保bucket存在（进程内只检查一次）
             ensureBucketExists();
             
             // 生成文件名
-            String originalFilename = file.getOriginalFilename();
+            String originalFilename = upload.getOriginalFilename();
             String extension = originalFilename != null && originalFilename.contains(".") 
                     ? originalFilename.substring(originalFilename.lastIndexOf(".")) 
                     : "";
             String filename = UUID.randomUUID().toString() + extension;
             
             // 上传文件
-            minioClient.putObject(
-                    PutObjectArgs.builder()
-                            .bucket(bucketName)
-                            .object(filename)
-                            .stream(file.getInputStream(), file.getSize(), -1)
-                            .contentType(file.getContentType())
-                            .build()
-            );
+            UploadObjectArgs.Builder args = UploadObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(filename)
+                    .filename(upload.getPath().toString());
+            if (upload.getContentType() != null) {
+                args.contentType(upload.getContentType());
+            }
+            minioClient.uploadObject(args.build());
             
             log.info("文件上传成功：{}", filename);
             return filename;
@@ -76,6 +82,65 @@ public class FileStorageService {
         }
     }
     
+    /**
+     * 下载文件的一段（从 offset 起 length 字节）
+     */
+    public InputStream downloadFile(String filename, long offset, long length) {
+        try {
+            return minioClient.getObject(
+                    GetObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(filename)
+                            .offset(offset)
+                            .length(length)
+                            .build()
+            );
+        } catch (Exception e) {
+            log.error("文件下载失败：{}", e.getMessage(), e);
+            throw new BusinessException(ResultCode.SYSTEM_ERROR.getCode(), "文件下载失败");
+        }
+    }
+
+    /**
+     * 获取文件元信息（大小、ETag、类型）
+     */
+    public StatObjectResponse statFile(String filename) {
+        try {
+            return minioClient.statObject(
+                    StatObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(filename)
+                            .build()
+            );
+        } catch (Exception e) {
+            log.error("获取文件信息失败：{}", e.getMessage(), e);
+            throw new BusinessException(ResultCode.SYSTEM_ERROR.getCode(), "文件不存在或无法访问");
+        }
+    }
+
+    /**
+     * 生成预签名下载地址，客户端直接从 MinIO 下载，不经过本服务
+     *
+     * @param contentDisposition 下载响应的 Content-Disposition（含文件名）
+     * @param expirySeconds 有效期（秒）
+     */
+    public String getPresignedDownloadUrl(String filename, String contentDisposition, int expirySeconds) {
+        try {
+            return presignMinioClient.getPresignedObjectUrl(
+                    GetPresignedObjectUrlArgs.builder()
+                            .method(Method.GET)
+                            .bucket(bucketName)
+                            .object(filename)
+                            .expiry(expirySeconds)
+                            .extraQueryParams(Map.of("response-content-disposition", contentDisposition))
+                            .build()
+            );
+        } catch (Exception e) {
+            log.error("生成下载地址失败：{}", e.getMessage(), e);
+            throw new BusinessException(ResultCode.SYSTEM_ERROR.getCode(), "生成下载地址失败");
+        }
+    }
+    
     /**
      * 删除文件
      */
@@ -94,9 +159,12 @@ public class FileStorageService {
     }
     
     /**
-     * 确保bucket存在
+     * 确保bucket存在（检查成功后不再重复请求 MinIO）
      */
     private void ensureBucketExists() {
+        if (bucketReady) {
+            return;
+        }
         try {
             boolean exists = minioClient.bucketExists(
                     BucketExistsArgs.builder().bucket(bucketName).build()
@@ -108,6 +176,7 @@ public class FileStorageService {
                 );
                 log.info("创建Bucket：{}", bucketName);
             }
+            bucketReady = true;
         } catch (Exception e) {
             log.error("检查Bucket失败：{}", e.getMessage(), e);
         }
@@ -0,0 +1,392 @@
+package com.aimanager.knowledge.service;
+
+import com.aimanager.common.exception.BusinessException;
+import com.aimanager.common.result.ResultCode;
+import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.entity.DocumentChunk;
+import com.aimanager.knowledge.entity.IngestionJob;
+import com.aimanager.knowledge.mapper.DocumentMapper;
+import com.aimanager.knowledge.mapper.IngestionJobMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 文档入库任务服务
+ * 上传时在同一事务内写入任务记录，由定时轮询按空闲工作线程数抢占任务执行。
+ * 任务分 CHUNK（分块）与 EMBED（向量化）两个阶段，失败后从当前阶段指数退避重试，每个阶段最多尝试 maxAttempts 次；
+ * 向量化按批提交并记录已完成分块数，重启或租约过期后从断点继续。文档删除时执行中的任务在检查点停止并清理已写入的向量。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestionJobService {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_SUCCESS = "SUCCESS";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    public static final String STAGE_CHUNK = "CHUNK";
+    public static final String STAGE_EMBED = "EMBED";
+    public static final String STAGE_DONE = "DONE";
+
+    /**
+     * 错误信息最大保存长度
+     */
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final IngestionJobMapper ingestionJobMapper;
+    private final DocumentMapper documentMapper;
+    private final DocumentChunkService documentChunkService;
+    private final DocumentCacheService documentCacheService;
+    private final VectorServiceClient vectorServiceClient;
+    @Qualifier("ingestionExecutor")
+    private final ExecutorService ingestionExecutor;
+
+    @Value("${document.ingestion.worker-threads:2}")
+    private int workerThreads;
+
+    @Value("${document.ingestion.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${document.ingestion.embed-batch-size:20}")
+    private int embedBatchSize;
+
+    @Value("${document.ingestion.lease-seconds:300}")
+    private long leaseSeconds;
+
+    @Value("${document.ingestion.backoff-base-seconds:10}")
+    private long backoffBaseSeconds;
+
+    @Value("${document.ingestion.backoff-max-seconds:600}")
+    private long backoffMaxSeconds;
+
+    /**
+     * 本实例正在执行的任务数上限（与工作线程数一致），轮询时只抢占空闲数量的任务
+     */
+    private Semaphore workerSlots;
+
+    @PostConstruct
+    public void init() {
+        workerSlots = new Semaphore(workerThreads);
+    }
+
+    /**
+     * 为文档创建入库任务（同一文档的旧任务会被取消，执行中的旧任务在下一个检查点停止）
+     */
+    public IngestionJob enqueue(Long docId) {
+        return enqueue(docId, null);
+    }
+
+    /**
+     * 为文档创建入库任务，内容与 sourceDocId 相同时优先复制其向量而不重新向量化
+     */
+    public IngestionJob enqueue(Long docId, Long sourceDocId) {
+        ingestionJobMapper.cancelActive(docId);
+
+        IngestionJob job = new IngestionJob();
+        job.setDocId(docId);
+        job.setSourceDocId(sourceDocId);
+        job.setStatus(STATUS_PENDING);
+        job.setStage(STAGE_CHUNK);
+        job.setAttempts(0);
+        job.setMaxAttempts(maxAttempts);
+        job.setTotalChunks(0);
+        job.setEmbeddedChunks(0);
+        job.setNextRunTime(LocalDateTime.now());
+        ingestionJobMapper.insert(job);
+
+        log.info("入库任务已创建: jobId={}, docId={}", job.getId(), docId);
+        return job;
+    }
+
+    /**
+     * 取消文档的入库任务（文档删除时调用）
+     * 待执行的任务直接取消；执行中的任务在阶段之间及每批向量写入前检查状态，发现已取消后停止并清理已写入的向量
+     */
+    public void cancel(Long docId) {
+        ingestionJobMapper.cancelActive(docId);
+    }
+
+    /**
+     * 查询文档最近一次入库任务的进度
+     */
+    public Map<String, Object> getIngestionStatus(Long docId) {
+        IngestionJob job = ingestionJobMapper.selectOne(new LambdaQueryWrapper<IngestionJob>()
+                .eq(IngestionJob::getDocId, docId)
+                .orderByDesc(IngestionJob::getId)
+                .last("LIMIT 1"));
+        if (job == null) {
+            throw new BusinessException(ResultCode.DOCUMENT_NOT_FOUND.getCode(), "入库任务不存在");
+        }
+
+        int total = job.getTotalChunks();
+        int embedded = job.getEmbeddedChunks();
+        Map<String, Object> status = new HashMap<>();
+        status.put("jobId", job.getId());
+        status.put("docId", docId);
+        status.put("status", job.getStatus());
+        status.put("stage", job.getStage());
+        status.put("totalChunks", total);
+        status.put("embeddedChunks", embedded);
+        status.put("progress", total == 0 ? 0.0 : (double) embedded / total);
+        status.put("attempts", job.getAttempts());
+        status.put("maxAttempts", job.getMaxAttempts());
+        status.put("lastError", job.getLastError());
+        status.put("nextRunTime", job.getNextRunTime());
+        status.put("createTime", job.getCreateTime());
+        status.put("finishTime", job.getFinishTime());
+        return status;
+    }
+
+    /**
+     * 轮询可执行任务（到期的待执行任务与租约过期的执行中任务），按空闲工作线程数抢占
+     */
+    @Scheduled(fixedDelayString = "${document.ingestion.poll-interval-ms:2000}")
+    public void poll() {
+        int free = workerSlots.availablePermits();
+        if (free == 0) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<IngestionJob> candidates = ingestionJobMapper.selectRunnable(now, free);
+        for (IngestionJob job : candidates) {
+            if (!workerSlots.tryAcquire()) {
+                return;
+            }
+            if (ingestionJobMapper.claim(job.getId(), now, now.plusSeconds(leaseSeconds)) == 0) {
+                // 已被其他实例抢占
+                workerSlots.release();
+                continue;
+            }
+            try {
+                ingestionExecutor.execute(() -> {
+                    try {
+                        run(job.getId());
+                    } finally {
+                        workerSlots.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 停机中，租约过期后由下次启动重新抢占
+                workerSlots.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 执行任务的剩余阶段
+     */
+    private void run(Long jobId) {
+        IngestionJob job = ingestionJobMapper.selectById(jobId);
+        try {
+            Document document = documentMapper.selectById(job.getDocId());
+            if (document == null) {
+                finish(job, STATUS_CANCELLED, "文档已删除");
+                return;
+            }
+
+            if (STAGE_CHUNK.equals(job.getStage())) {
+                runChunkStage(job, document);
+            }
+            if (STAGE_EMBED.equals(job.getStage())) {
+                ensureActive(job);
+                runEmbedStage(job);
+            }
+            ensureActive(job);
+
+            finish(job, STATUS_SUCCESS, null);
+            log.info("入库任务完成: jobId={}, docId={}, 分块数={}", jobId, job.getDocId(), job.getTotalChunks());
+        } catch (JobCancelledException e) {
+            onCancelled(job, e.getMessage());
+        } catch (Exception e) {
+            fail(job, e);
+        }
+    }
+
+    /**
+     * 检查点：任务已被取消或文档已删除时停止执行
+     */
+    private void ensureActive(IngestionJob job) {
+        IngestionJob current = ingestionJobMapper.selectOne(new LambdaQueryWrapper<IngestionJob>()
+                .select(IngestionJob::getId, IngestionJob::getStatus)
+                .eq(IngestionJob::getId, job.getId()));
+        if (current == null || !STATUS_RUNNING.equals(current.getStatus())) {
+            throw new JobCancelledException("任务已取消");
+        }
+        if (!documentMapper.exists(new LambdaQueryWrapper<Document>().eq(Document::getId, job.getDocId()))) {
+            throw new JobCancelledException("文档已删除");
+        }
+    }
+
+    /**
+     * 任务取消后的处理：文档已删除时清理本次执行可能已写入的向量，避免留下孤立向量
+     */
+    private void onCancelled(IngestionJob job, String reason) {
+        finish(job, STATUS_CANCELLED, reason);
+        if (!documentMapper.exists(new LambdaQueryWrapper<Document>().eq(Document::getId, job.getDocId()))) {
+            vectorServiceClient.deleteDocumentVectors(job.getDocId());
+        }
+        log.info("入库任务已取消: jobId={}, docId={}, stage={}, reason={}",
+                job.getId(), job.getDocId(), job.getStage(), reason);
+    }
+
+    /**
+     * 分块阶段：上传时已持久化分块则直接复用，否则从文档内容重新分块
+     * 尝试次数在任务抢占时累加；进入向量化阶段时重置为 1（本次执行即该阶段的第一次尝试），每个阶段各有 maxAttempts 次重试
+     */
+    private void runChunkStage(IngestionJob job, Document document) {
+        List<DocumentChunk> chunks = documentChunkService.listChunks(document.getId());
+        if (chunks.isEmpty() && document.getContent() != null && !document.getContent().isEmpty()) {
+            chunks = documentChunkService.rebuildChunks(document);
+            documentCacheService.invalidate(document.getId());
+        }
+
+        job.setStage(chunks.isEmpty() ? STAGE_DONE : STAGE_EMBED);
+        job.setAttempts(1);
+        job.setTotalChunks(chunks.size());
+        job.setEmbeddedChunks(0);
+        ingestionJobMapper.update(null, runningJob(job)
+                .set(IngestionJob::getStage, job.getStage())
+                .set(IngestionJob::getAttempts, 1)
+                .set(IngestionJob::getTotalChunks, job.getTotalChunks())
+                .set(IngestionJob::getEmbeddedChunks, 0));
+    }
+
+    /**
+     * 向量化阶段：从已完成的分块数继续，按批提交向量服务，每批完成后记录进度并续租
+     */
+    private void runEmbedStage(IngestionJob job) {
+        Long docId = job.getDocId();
+        List<DocumentChunk> chunks = documentChunkService.listChunks(docId);
+        if (chunks.size() != job.getTotalChunks()) {
+            // 分块在任务执行期间被重建，重新开始向量化
+            job.setTotalChunks(chunks.size());
+            job.setEmbeddedChunks(0);
+        }
+
+        if (job.getEmbeddedChunks() == 0 && job.getSourceDocId() != null && copyVectors(job, chunks.size())) {
+            ensureActive(job);
+            job.setEmbeddedChunks(chunks.size());
+            ingestionJobMapper.update(null, runningJob(job)
+                    .set(IngestionJob::getTotalChunks, job.getTotalChunks())
+                    .set(IngestionJob::getEmbeddedChunks, chunks.size()));
+            job.setStage(STAGE_DONE);
+            return;
+        }
+
+        if (job.getEmbeddedChunks() == 0) {
+            // 首次向量化前清除文档的旧向量（重新向量化或向量复制不完整时残留的向量）
+            vectorServiceClient.deleteDocumentVectors(docId);
+        }
+
+        for (int start = job.getEmbeddedChunks(); start < chunks.size(); start += embedBatchSize) {
+            // 每批写入向量前确认任务仍有效（写入后的检查由下一批或阶段结束时完成）
+            ensureActive(job);
+            int end = Math.min(start + embedBatchSize, chunks.size());
+            vectorServiceClient.vectorizeChunks(docId, start,
+                    chunks.subList(start, end).stream().map(DocumentChunk::getChunkContent).toList());
+
+            job.setEmbeddedChunks(end);
+            ingestionJobMapper.update(null, runningJob(job)
+                    .set(IngestionJob::getTotalChunks, job.getTotalChunks())
+                    .set(IngestionJob::getEmbeddedChunks, end)
+                    .set(IngestionJob::getLeaseUntil, LocalDateTime.now().plusSeconds(leaseSeconds)));
+            log.debug("入库任务进度: jobId={}, docId={}, {}/{}", job.getId(), docId, end, chunks.size());
+        }
+
+        job.setStage(STAGE_DONE);
+    }
+
+    /**
+     * 复制内容相同的源文档的向量，源文档向量数与分块数一致才算成功
+     */
+    private boolean copyVectors(IngestionJob job, int chunkCount) {
+        try {
+            if (vectorServiceClient.copyDocumentVectors(job.getSourceDocId(), job.getDocId()) == chunkCount) {
+                log.info("复用源文档向量: docId={}, sourceDocId={}, 向量数={}",
+                        job.getDocId(), job.getSourceDocId(), chunkCount);
+                return true;
+            }
+            log.info("源文档向量不完整，改为重新向量化: docId={}, sourceDocId={}", job.getDocId(), job.getSourceDocId());
+        } catch (Exception e) {
+            log.warn("复制源文档向量失败，改为重新向量化: docId={}, sourceDocId={}, error={}",
+                    job.getDocId(), job.getSourceDocId(), e.getMessage());
+        }
+        return false;
+    }
+
+    private void finish(IngestionJob job, String status, String message) {
+        ingestionJobMapper.update(null, runningJob(job)
+                .set(IngestionJob::getStatus, status)
+                .set(IngestionJob::getStage, STATUS_SUCCESS.equals(status) ? STAGE_DONE : job.getStage())
+                .set(IngestionJob::getLastError, message)
+                .set(IngestionJob::getLeaseUntil, null)
+                .set(IngestionJob::getFinishTime, LocalDateTime.now()));
+    }
+
+    /**
+     * 失败处理：未达到最大尝试次数则按指数退避重新排队，否则标记为失败
+     */
+    private void fail(IngestionJob job, Exception e) {
+        String error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+        if (error.length() > MAX_ERROR_LENGTH) {
+            error = error.substring(0, MAX_ERROR_LENGTH);
+        }
+
+        // attempts 为抢占时累加后的值，即当前阶段包含本次在内的尝试次数
+        int attempts = job.getAttempts();
+        if (attempts >= job.getMaxAttempts()) {
+            finish(job, STATUS_FAILED, error);
+            log.error("入库任务失败且不再重试: jobId={}, docId={}, stage={}, error={}",
+                    job.getId(), job.getDocId(), job.getStage(), error, e);
+            return;
+        }
+
+        long delay = Math.min(backoffMaxSeconds, backoffBaseSeconds << Math.min(Math.max(attempts - 1, 0), 20));
+        ingestionJobMapper.update(null, runningJob(job)
+                .set(IngestionJob::getStatus, STATUS_PENDING)
+                .set(IngestionJob::getLastError, error)
+                .set(IngestionJob::getLeaseUntil, null)
+                .set(IngestionJob::getNextRunTime, LocalDateTime.now().plusSeconds(delay)));
+        log.warn("入库任务失败，{}秒后重试: jobId={}, docId={}, stage={}, attempts={}, error={}",
+                delay, job.getId(), job.getDocId(), job.getStage(), attempts, error);
+    }
+
+    /**
+     * 任务在执行中被取消
+     */
+    private static class JobCancelledException extends RuntimeException {
+
+        JobCancelledException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 仅更新仍处于执行中的任务（任务被取消后不再写回进度）
+     */
+    private LambdaUpdateWrapper<IngestionJob> runningJob(IngestionJob job) {
+        return new LambdaUpdateWrapper<IngestionJob>()
+                .eq(IngestionJob::getId, job.getId())
+                .eq(IngestionJob::getStatus, STATUS_RUNNING);
+    }
+}
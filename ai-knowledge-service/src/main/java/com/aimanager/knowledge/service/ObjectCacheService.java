@@ -0,0 +1,418 @@
+package com.aimanager.knowledge.service;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.minio.StatObjectResponse;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * MinIO 对象本地磁盘缓存
+ * 以对象名 + ETag 为键缓存到本地目录，对象被覆盖后 ETag 变化自然失效；按总字节数 LRU 淘汰。
+ * 下载先写临时文件再原子移动到目标位置，读者不会看到写了一半的文件；同一对象并发未命中只下载一次。
+ * 读取方通过租约固定文件，固定期间不淘汰；超过缓存上限的单个对象不入缓存。
+ * 对象元数据（ETag、大小）在内存中短时记忆，命中时不必每次访问 MinIO；对象被覆盖后最多在记忆有效期内仍返回旧版本。
+ */
+@Slf4j
+@Service
+public class ObjectCacheService {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final FileStorageService fileStorageService;
+    private final Path cacheDir;
+    private final long maxBytes;
+
+    /**
+     * 对象名 -> 最近一次查询到的元数据（短时有效）
+     */
+    private final Cache<String, StatObjectResponse> stats;
+
+    /**
+     * 缓存文件名 -> 文件大小（访问顺序，最久未使用的在前）
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * 被租约固定的缓存文件名 -> 租约数（固定期间不淘汰）
+     */
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ObjectCacheService(FileStorageService fileStorageService,
+                              @Value("${document.object-cache.dir:./data/object-cache}") String cacheDir,
+                              @Value("${document.object-cache.max-bytes:2147483648}") long maxBytes,
+                              @Value("${document.object-cache.stat-ttl-ms:5000}") long statTtlMs,
+                              @Value("${document.object-cache.stat-max-entries:10000}") long statMaxEntries) {
+        this.fileStorageService = fileStorageService;
+        this.cacheDir = Path.of(cacheDir);
+        this.maxBytes = maxBytes;
+        this.stats = Caffeine.newBuilder()
+                .maximumSize(statMaxEntries)
+                .expireAfterWrite(Duration.ofMillis(statTtlMs))
+                .build();
+    }
+
+    /**
+     * 启动时清理残留的临时文件，并按最后修改时间恢复 LRU 顺序
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(cacheDir);
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            stream.filter(Files::isRegularFile).forEach(files::add);
+        }
+
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else {
+                attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+            }
+        }
+
+        synchronized (this) {
+            attributes.entrySet().stream()
+                    .sorted(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()))
+                    .forEach(entry -> {
+                        entries.put(entry.getKey().getFileName().toString(), entry.getValue().size());
+                        totalBytes += entry.getValue().size();
+                    });
+            evict(null);
+        }
+        log.info("对象磁盘缓存已加载: dir={}, 文件数={}, 总字节数={}", cacheDir.toAbsolutePath(), entries.size(), totalBytes);
+    }
+
+    /**
+     * 获取对象的本地文件租约（未命中时从 MinIO 下载），租约关闭前文件不会被淘汰；
+     * 对象超过缓存上限时下载为不入缓存的临时文件，租约关闭时删除
+     */
+    public Lease acquire(String objectName) {
+        StatObjectResponse stat = stat(objectName);
+        String key = cacheKey(objectName, stat.etag());
+
+        Lease lease = pin(key);
+        if (lease != null) {
+            hitCount.incrementAndGet();
+            return lease;
+        }
+        missCount.incrementAndGet();
+
+        if (stat.size() > maxBytes) {
+            return new Lease(downloadTemp(objectName), null);
+        }
+        while (true) {
+            CompletableFuture<Path> future = new CompletableFuture<>();
+            CompletableFuture<Path> inFlight = loading.putIfAbsent(key, future);
+            if (inFlight != null) {
+                join(inFlight);
+            } else {
+                load(objectName, key, future, null);
+            }
+            // 下载完成到加锁之间可能已被其他下载挤出缓存，此时重新下载
+            lease = pin(key);
+            if (lease != null) {
+                return lease;
+            }
+        }
+    }
+
+    /**
+     * 将对象的一段（从 offset 起 length 字节）写到输出流
+     * 命中时从本地文件按缓冲区读出写给客户端；未命中的完整下载边从 MinIO 读取边写给客户端并同时写入缓存，
+     * 不等整个对象下载完；续传分段、超过缓存上限或已有线程在下载的对象直接按范围从 MinIO 转发，不入缓存
+     */
+    public void transferTo(String objectName, long offset, long length, OutputStream out) throws IOException {
+        StatObjectResponse stat = stat(objectName);
+        String key = cacheKey(objectName, stat.etag());
+
+        Lease lease = pin(key);
+        if (lease != null) {
+            hitCount.incrementAndGet();
+            try (lease; SeekableByteChannel channel = Files.newByteChannel(lease.getPath(), StandardOpenOption.READ)) {
+                channel.position(offset);
+                InputStream in = Channels.newInputStream(channel);
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        break;
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            return;
+        }
+        missCount.incrementAndGet();
+
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        if (offset > 0 || stat.size() > maxBytes || loading.putIfAbsent(key, future) != null) {
+            try (InputStream in = fileStorageService.downloadFile(objectName, offset, length)) {
+                in.transferTo(out);
+            }
+            return;
+        }
+        TeeTarget tee = new TeeTarget(out, length);
+        load(objectName, key, future, tee);
+        if (tee.error != null) {
+            throw tee.error;
+        }
+    }
+
+    /**
+     * 使对象的元数据记忆失效（对象被覆盖或删除后调用，下次访问重新查询 MinIO）
+     */
+    public void forget(String objectName) {
+        stats.invalidate(objectName);
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public synchronized Map<String, Object> getStats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("weightBytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("pinned", pins.size());
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("hitRate", hits + misses == 0 ? 1.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * 本地文件租约：持有期间缓存文件不会被淘汰（key 为 null 表示不入缓存的临时文件，关闭时删除）
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final Path path;
+        private final String key;
+        private boolean closed;
+
+        private Lease(Path path, String key) {
+            this.path = path;
+            this.key = key;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                unpin(key);
+                return;
+            }
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("删除临时文件失败: {}", path);
+            }
+        }
+    }
+
+    /**
+     * 命中时固定缓存文件并返回租约，未命中返回 null
+     */
+    private synchronized Lease pin(String key) {
+        if (entries.get(key) == null) {
+            return null;
+        }
+        pins.merge(key, 1, Integer::sum);
+        return new Lease(cacheDir.resolve(key), key);
+    }
+
+    private synchronized void unpin(String key) {
+        pins.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+        evict(null);
+    }
+
+    /**
+     * 作为该对象唯一的下载者下载到缓存，完成后通知等待同一对象的其他线程
+     */
+    private void load(String objectName, String key, CompletableFuture<Path> future, TeeTarget tee) {
+        try {
+            future.complete(download(objectName, key, tee));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private Path download(String objectName, String key, TeeTarget tee) {
+        Path target = cacheDir.resolve(key);
+        try {
+            Path temp = Files.createTempFile(cacheDir, key + "-", TEMP_SUFFIX);
+            try {
+                try (InputStream in = fileStorageService.downloadFile(objectName);
+                     OutputStream file = Files.newOutputStream(temp)) {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        file.write(buffer, 0, read);
+                        if (tee != null) {
+                            tee.write(buffer, read);
+                        }
+                    }
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            long size = Files.size(target);
+            synchronized (this) {
+                Long previous = entries.put(key, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evict(key);
+            }
+            log.debug("对象已缓存到本地: object={}, size={}", objectName, size);
+            return target;
+        } catch (IOException e) {
+            throw new UncheckedIOException("缓存对象失败: " + objectName, e);
+        }
+    }
+
+    /**
+     * 下载超过缓存上限的对象到不入缓存的临时文件
+     */
+    private Path downloadTemp(String objectName) {
+        try {
+            Path temp = Files.createTempFile(cacheDir, "uncached-", TEMP_SUFFIX);
+            try (InputStream in = fileStorageService.downloadFile(objectName)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                return temp;
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("下载对象失败: " + objectName, e);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用且未被固定的文件直到总字节数不超过上限（keep 为刚写入的文件，不淘汰）
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep) || pins.containsKey(eldest.getKey())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(cacheDir.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                // 文件正被读取（Windows 下无法删除），保留到下次淘汰
+                log.debug("淘汰缓存文件失败: {}", eldest.getKey());
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 边下载边写给客户端：只写出前 length 字节；客户端断开后停止写出但继续完成缓存，结束后再抛出客户端异常
+     */
+    private static final class TeeTarget {
+
+        private final OutputStream out;
+        private long remaining;
+        private IOException error;
+
+        private TeeTarget(OutputStream out, long length) {
+            this.out = out;
+            this.remaining = length;
+        }
+
+        private void write(byte[] buffer, int length) {
+            if (remaining <= 0 || error != null) {
+                return;
+            }
+            int count = (int) Math.min(length, remaining);
+            try {
+                out.write(buffer, 0, count);
+            } catch (IOException e) {
+                error = e;
+            }
+            remaining -= count;
+        }
+    }
+
+    /**
+     * 查询对象元数据，记忆有效期内直接返回上次结果
+     */
+    private StatObjectResponse stat(String objectName) {
+        return stats.get(objectName, fileStorageService::statFile);
+    }
+
+    /**
+     * 缓存文件名：对象名哈希 + ETag（对象被覆盖后 ETag 变化，旧文件不再命中并随 LRU 淘汰）
+     */
+    private String cacheKey(String objectName, String etag) {
+        String version = etag == null ? "none" : etag.replaceAll("[^A-Za-z0-9-]", "");
+        return DigestUtil.sha256Hex(objectName) + "-" + version;
+    }
+
+    private Path join(CompletableFuture<Path> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.aimanager.knowledge.service;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 文档解析结果
+ * 除正文外保留分页边界（每页在正文中的起始偏移），分块时据此标注分块所在页码。
+ */
+@Getter
+public class ParsedDocument {
+
+    private final String content;
+
+    /**
+     * 每页在 content 中的起始偏移（第1页为0）；无分页概念的文档为空列表
+     */
+    private final List<Integer> pageOffsets;
+
+    public ParsedDocument(String content, List<Integer> pageOffsets) {
+        this.content = content;
+        this.pageOffsets = pageOffsets;
+    }
+
+    /**
+     * 无分页信息的解析结果
+     */
+    public static ParsedDocument of(String content) {
+        return new ParsedDocument(content, List.of());
+    }
+
+    /**
+     * 分页偏移的存储形式（逗号分隔），无分页时返回 null
+     */
+    public String getPageOffsetsValue() {
+        if (pageOffsets.isEmpty()) {
+            return null;
+        }
+        return pageOffsets.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,322 @@
+package com.aimanager.knowledge.service;
+
+import com.aimanager.knowledge.entity.Document;
+import com.aimanager.knowledge.entity.DocumentChunk;
+import com.aimanager.knowledge.entity.RevectorizeTask;
+import com.aimanager.knowledge.mapper.DocumentMapper;
+import com.aimanager.knowledge.mapper.RevectorizeTaskMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 全量重新向量化服务
+ * 按文档ID游标分批读取文档（每批才加载 content），批内在有界线程池中并行向量化，
+ * 按每秒分块数限流调用向量服务。每批完成后把检查点写入 t_revectorize_task，
+ * 任务中断后再次执行会从检查点继续，而不是清空向量库从头开始。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RevectorizeService {
+
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+
+    /**
+     * 单批分块向量化的最大尝试次数
+     */
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+
+    /**
+     * 错误信息最大保存长度
+     */
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final DocumentMapper documentMapper;
+    private final RevectorizeTaskMapper revectorizeTaskMapper;
+    private final DocumentChunkService documentChunkService;
+    private final DocumentCacheService documentCacheService;
+    private final VectorServiceClient vectorServiceClient;
+    @Qualifier("revectorizeCoordinator")
+    private final ExecutorService revectorizeCoordinator;
+    @Qualifier("revectorizeExecutor")
+    private final ExecutorService revectorizeExecutor;
+
+    @Value("${document.revectorize.scan-batch-size:50}")
+    private int scanBatchSize;
+
+    @Value("${document.ingestion.embed-batch-size:20}")
+    private int embedBatchSize;
+
+    @Value("${document.revectorize.max-chunks-per-second:20}")
+    private double maxChunksPerSecond;
+
+    @Value("${document.revectorize.retry-backoff-ms:2000}")
+    private long retryBackoffMs;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopRequested;
+
+    /**
+     * 本次执行开始时的时间与已处理数，用于计算速率和预计剩余时间
+     */
+    private volatile long sessionStartNanos;
+    private volatile int sessionStartProcessed;
+
+    /**
+     * 限流：下一个可用许可的时间点（纳秒）
+     */
+    private long nextPermitNanos;
+
+    /**
+     * 启动全量重新向量化；存在未完成的任务时从其检查点继续，本实例已在执行时直接返回进度
+     */
+    public Map<String, Object> start() {
+        if (!running.compareAndSet(false, true)) {
+            return getProgress();
+        }
+
+        RevectorizeTask task;
+        try {
+            task = latestTask();
+            if (task != null && STATUS_RUNNING.equals(task.getStatus())) {
+                log.info("===== 继续未完成的重新向量化任务: taskId={}, 检查点docId={}, 已处理{}/{} =====",
+                        task.getId(), task.getLastDocId(), task.getProcessedDocuments(), task.getTotalDocuments());
+            } else {
+                task = createTask();
+            }
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+
+        stopRequested = false;
+        sessionStartNanos = System.nanoTime();
+        sessionStartProcessed = task.getProcessedDocuments();
+
+        RevectorizeTask current = task;
+        try {
+            revectorizeCoordinator.execute(() -> {
+                try {
+                    run(current);
+                } catch (Exception e) {
+                    log.error("重新向量化任务异常中止，可再次执行从检查点继续: taskId={}, error={}",
+                            current.getId(), e.getMessage(), e);
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return getProgress();
+    }
+
+    /**
+     * 查询最近一次任务的进度与预计剩余时间
+     */
+    public Map<String, Object> getProgress() {
+        RevectorizeTask task = latestTask();
+        Map<String, Object> progress = new HashMap<>();
+        if (task == null) {
+            progress.put("status", "NONE");
+            return progress;
+        }
+
+        int total = task.getTotalDocuments();
+        int processed = task.getProcessedDocuments();
+        progress.put("taskId", task.getId());
+        progress.put("status", task.getStatus());
+        progress.put("running", running.get());
+        progress.put("totalDocuments", total);
+        progress.put("processedDocuments", processed);
+        progress.put("successCount", task.getSuccessCount());
+        progress.put("failCount", task.getFailCount());
+        progress.put("totalChunks", task.getTotalChunks());
+        progress.put("lastDocId", task.getLastDocId());
+        progress.put("progress", total == 0 ? 1.0 : Math.min(1.0, (double) processed / total));
+        progress.put("lastError", task.getLastError());
+        progress.put("startTime", task.getStartTime());
+        progress.put("finishTime", task.getFinishTime());
+
+        if (running.get()) {
+            double elapsedSeconds = (System.nanoTime() - sessionStartNanos) / 1e9;
+            int done = processed - sessionStartProcessed;
+            double docsPerSecond = elapsedSeconds > 0 ? done / elapsedSeconds : 0;
+            progress.put("elapsedSeconds", (long) elapsedSeconds);
+            progress.put("docsPerSecond", docsPerSecond);
+            progress.put("etaSeconds", docsPerSecond > 0 ? (long) (Math.max(total - processed, 0) / docsPerSecond) : null);
+        }
+        return progress;
+    }
+
+    /**
+     * 停机时在当前批次结束后停止，任务保持 RUNNING 状态，下次执行从检查点继续
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopRequested = true;
+    }
+
+    private RevectorizeTask createTask() {
+        vectorServiceClient.resetCollection();
+        log.info("===== 开始重新向量化所有文档，向量库已清空 =====");
+
+        RevectorizeTask task = new RevectorizeTask();
+        task.setStatus(STATUS_RUNNING);
+        task.setLastDocId(0L);
+        task.setTotalDocuments(Math.toIntExact(documentMapper.selectCount(contentWrapper())));
+        task.setProcessedDocuments(0);
+        task.setSuccessCount(0);
+        task.setFailCount(0);
+        task.setTotalChunks(0);
+        task.setStartTime(LocalDateTime.now());
+        revectorizeTaskMapper.insert(task);
+        return task;
+    }
+
+    private void run(RevectorizeTask task) {
+        while (!stopRequested) {
+            List<Document> batch = documentMapper.selectList(contentWrapper()
+                    .select(Document::getId, Document::getDocTitle, Document::getContentData, Document::getPageOffsets)
+                    .gt(Document::getId, task.getLastDocId())
+                    .orderByAsc(Document::getId)
+                    .last("LIMIT " + scanBatchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            List<CompletableFuture<Integer>> futures = new ArrayList<>(batch.size());
+            for (Document document : batch) {
+                futures.add(CompletableFuture.supplyAsync(() -> revectorize(document), revectorizeExecutor));
+            }
+
+            String lastError = null;
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    task.setTotalChunks(task.getTotalChunks() + futures.get(i).join());
+                    task.setSuccessCount(task.getSuccessCount() + 1);
+                } catch (Exception e) {
+                    Document document = batch.get(i);
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    log.error("向量化文档失败: documentId={}, title={}, error={}",
+                            document.getId(), document.getDocTitle(), cause.getMessage());
+                    task.setFailCount(task.getFailCount() + 1);
+                    lastError = "documentId=" + document.getId() + ": " + cause.getMessage();
+                }
+            }
+
+            // 批次全部结束后推进检查点
+            task.setLastDocId(batch.get(batch.size() - 1).getId());
+            task.setProcessedDocuments(task.getProcessedDocuments() + batch.size());
+            if (lastError != null) {
+                task.setLastError(lastError.length() > MAX_ERROR_LENGTH ? lastError.substring(0, MAX_ERROR_LENGTH) : lastError);
+            }
+            revectorizeTaskMapper.updateById(task);
+        }
+
+        documentCacheService.invalidateAll();
+        if (stopRequested) {
+            log.info("重新向量化任务已暂停: taskId={}, 检查点docId={}", task.getId(), task.getLastDocId());
+            return;
+        }
+
+        task.setStatus(STATUS_COMPLETED);
+        task.setFinishTime(LocalDateTime.now());
+        revectorizeTaskMapper.updateById(task);
+        log.info("===== 重新向量化完成: 成功{}个, 失败{}个, 总分块数={} =====",
+                task.getSuccessCount(), task.getFailCount(), task.getTotalChunks());
+    }
+
+    /**
+     * 重新分块并向量化单个文档
+     *
+     * @return 分块数
+     */
+    private int revectorize(Document document) {
+        List<DocumentChunk> chunks = documentChunkService.rebuildChunks(document);
+        // 从检查点继续时，该文档可能已写入部分向量
+        vectorServiceClient.deleteDocumentVectors(document.getId());
+
+        for (int start = 0; start < chunks.size(); start += embedBatchSize) {
+            int end = Math.min(start + embedBatchSize, chunks.size());
+            List<String> texts = chunks.subList(start, end).stream().map(DocumentChunk::getChunkContent).toList();
+            vectorizeWithRetry(document.getId(), start, texts);
+        }
+        return chunks.size();
+    }
+
+    private void vectorizeWithRetry(Long docId, int startIndex, List<String> texts) {
+        for (int attempt = 1; ; attempt++) {
+            acquire(texts.size());
+            try {
+                vectorServiceClient.vectorizeChunks(docId, startIndex, texts);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_BATCH_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("分块向量化失败，{}ms后重试: documentId={}, startIndex={}, attempt={}, error={}",
+                        retryBackoffMs << (attempt - 1), docId, startIndex, attempt, e.getMessage());
+                sleep(TimeUnit.MILLISECONDS.toNanos(retryBackoffMs << (attempt - 1)));
+            }
+        }
+    }
+
+    /**
+     * 按每秒分块数限流，获取 permits 个许可（不足时阻塞等待）
+     */
+    private void acquire(int permits) {
+        if (maxChunksPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextPermitNanos);
+            nextPermitNanos = start + (long) (permits * 1e9 / maxChunksPerSecond);
+            waitNanos = start - now;
+        }
+        sleep(waitNanos);
+    }
+
+    private void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("重新向量化被中断", e);
+        }
+    }
+
+    private LambdaQueryWrapper<Document> contentWrapper() {
+        return new LambdaQueryWrapper<Document>()
+                .isNotNull(Document::getContentData)
+                .apply("LENGTH(content) > 0");
+    }
+
+    private RevectorizeTask latestTask() {
+        return revectorizeTaskMapper.selectOne(new LambdaQueryWrapper<RevectorizeTask>()
+                .orderByDesc(RevectorizeTask::getId)
+                .last("LIMIT 1"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.aimanager.knowledge.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 落盘的上传文件
+ * 只读取一次上传流，写入临时文件的同时计算 SHA-256；之后存储和解析都从临时文件读取，
+ * 不在堆内保留文件内容。关闭时删除临时文件。
+ */
+@Slf4j
+@Getter
+public class SpooledUpload implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final String sha256;
+
+    private SpooledUpload(Path path, String originalFilename, String contentType, long size, String sha256) {
+        this.path = path;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * 将上传文件写入临时目录并计算哈希
+     */
+    public static SpooledUpload spool(MultipartFile file, Path spoolDir) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Files.createDirectories(spoolDir);
+        Path path = Files.createTempFile(spoolDir, "upload-", ".tmp");
+        long size = 0;
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+             OutputStream out = Files.newOutputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        return new SpooledUpload(path, file.getOriginalFilename(), file.getContentType(), size,
+                HexFormat.of().formatHex(digest.digest()));
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除上传临时文件失败: {}", path, e);
+        }
+    }
+}
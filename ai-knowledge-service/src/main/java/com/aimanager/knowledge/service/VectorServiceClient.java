@@ -0,0 +1,82 @@
+package com.aimanager.knowledge.service;
+
+import com.aimanager.common.result.ResultCode;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量服务调用封装
+ * 统一检查 Result 响应码，失败时抛出异常交由调用方重试。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class VectorServiceClient {
+
+    private final RestTemplate restTemplate;
+
+    @Value("${vector.service.url:http://localhost:8085}")
+    private String vectorServiceUrl;
+
+    /**
+     * 向量化若干连续分块（向量服务会先删除该区间已有的向量）
+     *
+     * @return 存储的向量数量
+     */
+    public int vectorizeChunks(Long docId, int startIndex, List<String> chunks) {
+        Map<String, Object> request = new HashMap<>();
+        request.put("documentId", docId);
+        request.put("startIndex", startIndex);
+        request.put("chunks", chunks);
+        JsonNode response = restTemplate.postForObject(
+                vectorServiceUrl + "/vector/vectorize-chunks", request, JsonNode.class);
+        return checkResponse(response).asInt();
+    }
+
+    /**
+     * 复制源文档的全部向量到目标文档
+     *
+     * @return 复制的向量数量
+     */
+    public int copyDocumentVectors(Long sourceDocId, Long targetDocId) {
+        JsonNode response = restTemplate.postForObject(vectorServiceUrl + "/vector/copy?sourceDocumentId="
+                + sourceDocId + "&targetDocumentId=" + targetDocId, null, JsonNode.class);
+        return checkResponse(response).asInt();
+    }
+
+    /**
+     * 删除文档的全部向量，失败时只记录日志（向量可能本就不存在）
+     */
+    public void deleteDocumentVectors(Long docId) {
+        try {
+            restTemplate.delete(vectorServiceUrl + "/vector/delete/" + docId);
+        } catch (Exception e) {
+            log.warn("删除旧向量失败（可能不存在）: documentId={}", docId);
+        }
+    }
+
+    /**
+     * 清空向量库
+     */
+    public void resetCollection() {
+        JsonNode response = restTemplate.postForObject(
+                vectorServiceUrl + "/vector/reset-collection", null, JsonNode.class);
+        checkResponse(response);
+    }
+
+    private JsonNode checkResponse(JsonNode response) {
+        if (response == null || response.path("code").asInt() != ResultCode.SUCCESS.getCode()) {
+            throw new IllegalStateException("向量服务返回失败: "
+                    + (response == null ? "空响应" : response.path("message").asText()));
+        }
+        return response.path("data");
+    }
+}
@@ -0,0 +1,111 @@
+package com.aimanager.knowledge.util;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文档正文压缩编解码（zstd）
+ * 压缩后的数据以 zstd 帧魔数开头；不带魔数的数据视为未压缩的 UTF-8 文本（历史数据），
+ * 因此 content 列由 LONGTEXT 改为 LONGBLOB 后旧数据无需迁移即可读取。
+ */
+public class ContentCodec {
+
+    /**
+     * 压缩级别（3 为 zstd 默认级别，压缩比与速度较均衡）
+     */
+    private static final int COMPRESSION_LEVEL = 3;
+
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD};
+
+    private ContentCodec() {
+    }
+
+    /**
+     * 压缩文本（空串编码为空数组，便于按长度判断是否有内容）
+     */
+    public static byte[] encode(String text) {
+        if (text == null) {
+            return null;
+        }
+        if (text.isEmpty()) {
+            return new byte[0];
+        }
+        return Zstd.compress(text.getBytes(StandardCharsets.UTF_8), COMPRESSION_LEVEL);
+    }
+
+    /**
+     * 解压为完整文本
+     */
+    public static String decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (!isCompressed(data)) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+        long size = Zstd.decompressedSize(data);
+        if (size <= 0 || size > Integer.MAX_VALUE) {
+            return new String(readAll(data), StandardCharsets.UTF_8);
+        }
+        return new String(Zstd.decompress(data, (int) size), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 流式解压前 maxChars 个字符，不解压其余部分（用于列表摘录）
+     */
+    public static String decodePrefix(byte[] data, int maxChars) {
+        if (data == null) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(open(data), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[maxChars];
+            int length = 0;
+            int read;
+            while (length < maxChars && (read = reader.read(buffer, length, maxChars - length)) != -1) {
+                length += read;
+            }
+            return new String(buffer, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 是否为压缩数据
+     */
+    public static boolean isCompressed(byte[] data) {
+        if (data == null || data.length < ZSTD_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < ZSTD_MAGIC.length; i++) {
+            if (data[i] != ZSTD_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static InputStream open(byte[] data) throws IOException {
+        InputStream in = new ByteArrayInputStream(data);
+        return isCompressed(data) ? new ZstdInputStream(in) : in;
+    }
+
+    /**
+     * 帧头未记录原始大小时流式解压
+     */
+    private static byte[] readAll(byte[] data) {
+        try (InputStream in = open(data)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,19 +1,24 @@
 package com.aimanager.model.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * 聊天消息
  */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ChatMessage {
     
     /**
-     * 角色：system、user、assistant
+     * 角色：system、user、assistant、tool
      */
     private String role;
     
@@ -21,5 +26,24 @@ public class ChatMessage {
      * 消息内容
      */
     private String content;
-}
 
+    /**
+     * 工具调用列表（当 role=assistant 且模型决定调用工具时）
+     */
+    @JsonProperty("tool_calls")
+    private List<ChatResponse.ToolCall> toolCalls;
+
+    /**
+     * 对应的工具调用ID（当 role=tool 时）
+     */
+    @JsonProperty("tool_call_id")
+    private String toolCallId;
+
+    /**
+     * 便捷构造函数（只设置 role 和 content）
+     */
+    public ChatMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+}
@@ -56,5 +56,15 @@ public class ChatRequest {
      * 函数调用模式（auto/none）
      */
     private String functionCall;
+
+    /**
+     * 可用的工具列表（tools 格式，模型可在一轮中请求多个调用；与 functions 同时提供时优先使用）
+     */
+    private List<Map<String, Object>> tools;
+
+    /**
+     * 工具调用模式（auto/none/required）
+     */
+    private String toolChoice;
 }
 
@@ -2,6 +2,8 @@ package com.aimanager.model.dto;
 
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * 聊天响应DTO
  */
@@ -48,6 +50,11 @@ public class ChatResponse {
      */
     private FunctionCall functionCall;
 
+    /**
+     * 工具调用列表（tools 格式，模型可在一轮中请求多个调用）
+     */
+    private List<ToolCall> toolCalls;
+
     /**
      * 函数调用内部类
      */
@@ -63,5 +70,26 @@ public class ChatResponse {
          */
         private String arguments;
     }
+
+    /**
+     * 工具调用内部类
+     */
+    @Data
+    public static class ToolCall {
+        /**
+         * 调用ID（工具结果消息以 tool_call_id 回指）
+         */
+        private String id;
+
+        /**
+         * 工具类型（目前只有 function）
+         */
+        private String type;
+
+        /**
+         * 调用的函数
+         */
+        private FunctionCall function;
+    }
 }
 
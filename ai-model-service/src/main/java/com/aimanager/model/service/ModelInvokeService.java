@@ -10,6 +10,7 @@ import com.aimanager.model.mapper.ModelConfigMapper;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpEntity;
@@ -110,7 +111,7 @@ public class ModelInvokeService {
                 JsonNode message = firstChoice.path("message");
 
                 // 提取文本内容
-                chatResponse.setContent(message.path("content").asText());
+                chatResponse.setContent(message.path("content").asText(""));
                 chatResponse.setFinishReason(firstChoice.path("finish_reason").asText());
 
                 // 检查是否有 function_call
@@ -124,6 +125,27 @@ public class ModelInvokeService {
                     log.info("模型返回函数调用: name={}, arguments={}",
                         functionCall.getName(), functionCall.getArguments());
                 }
+
+                // 检查是否有 tool_calls（一轮中可能请求多个调用）
+                JsonNode toolCallsNode = message.path("tool_calls");
+                if (toolCallsNode.isArray() && !toolCallsNode.isEmpty()) {
+                    List<ChatResponse.ToolCall> toolCalls = new ArrayList<>();
+                    for (JsonNode toolCallNode : toolCallsNode) {
+                        ChatResponse.FunctionCall function = new ChatResponse.FunctionCall();
+                        function.setName(toolCallNode.path("function").path("name").asText());
+                        function.setArguments(toolCallNode.path("function").path("arguments").asText());
+
+                        ChatResponse.ToolCall toolCall = new ChatResponse.ToolCall();
+                        toolCall.setId(toolCallNode.path("id").asText());
+                        toolCall.setType(toolCallNode.path("type").asText("function"));
+                        toolCall.setFunction(function);
+                        toolCalls.add(toolCall);
+                    }
+                    chatResponse.setToolCalls(toolCalls);
+
+                    log.info("模型返回工具调用: count={}, names={}", toolCalls.size(),
+                        toolCalls.stream().map(toolCall -> toolCall.getFunction().getName()).toList());
+                }
             } else {
                 throw new RuntimeException("响应中没有choices数据");
             }
@@ -206,9 +228,21 @@ public class ModelInvokeService {
 
                         try {
                             JsonNode jsonNode = objectMapper.readTree(data);
-                            String content = jsonNode.path("choices").get(0).path("delta").path("content").asText();
-                            if (!content.isEmpty()) {
-                                emitter.send(SseEmitter.event().name("message").data(content));
+                            JsonNode delta = jsonNode.path("choices").path(0).path("delta");
+                            // 工具调用增量原样转发，由调用方按 index 拼接；旧版 function_call 转成同样的格式
+                            JsonNode toolCalls = delta.path("tool_calls");
+                            if (toolCalls.isArray() && !toolCalls.isEmpty()) {
+                                emitter.send(SseEmitter.event().name("tool_calls").data(toolCalls.toString()));
+                            } else if (delta.path("function_call").isObject()) {
+                                ObjectNode toolCall = objectMapper.createObjectNode();
+                                toolCall.put("index", 0);
+                                toolCall.set("function", delta.get("function_call"));
+                                emitter.send(SseEmitter.event().name("tool_calls")
+                                        .data(objectMapper.createArrayNode().add(toolCall).toString()));
+                            }
+                            JsonNode content = delta.path("content");
+                            if (content.isTextual() && !content.asText().isEmpty()) {
+                                emitter.send(SseEmitter.event().name("message").data(content.asText()));
                             }
                         } catch (Exception e) {
                             log.warn("解析流式响应失败: {}", e.getMessage());
@@ -275,8 +309,11 @@ public class ModelInvokeService {
             body.put("presence_penalty", config.getPresencePenalty());
         }
 
-        // Function Call 参数
-        if (request.getFunctions() != null && !request.getFunctions().isEmpty()) {
+        // Tool Call 参数（优先）/ Function Call 参数
+        if (request.getTools() != null && !request.getTools().isEmpty()) {
+            body.put("tools", request.getTools());
+            body.put("tool_choice", request.getToolChoice() != null ? request.getToolChoice() : "auto");
+        } else if (request.getFunctions() != null && !request.getFunctions().isEmpty()) {
             body.put("functions", request.getFunctions());
             if (request.getFunctionCall() != null) {
                 body.put("function_call", request.getFunctionCall());
@@ -3,12 +3,14 @@ package com.aimanager.qa;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * AI问答服务启动类
  */
 @SpringBootApplication(scanBasePackages = {"com.aimanager.qa", "com.aimanager.common"})
 @MapperScan("com.aimanager.qa.mapper")
+@EnableScheduling
 public class QaServiceApplication {
     
     public static void main(String[] args) {
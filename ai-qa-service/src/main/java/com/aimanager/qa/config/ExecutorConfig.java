@@ -0,0 +1,30 @@
+package com.aimanager.qa.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 线程池配置
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * 问答准备阶段执行器（虚拟线程，会话历史、检索、工具列表等阻塞调用并发执行）
+     */
+    @Bean(name = "askPrepareExecutor", destroyMethod = "shutdown")
+    public ExecutorService askPrepareExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ask-prepare-", 0).factory());
+    }
+
+    /**
+     * 审计记录写线程（单线程批量写入调用历史）
+     */
+    @Bean(name = "auditWriterExecutor", destroyMethod = "shutdown")
+    public ExecutorService auditWriterExecutor() {
+        return Executors.newSingleThreadExecutor(Thread.ofPlatform().name("audit-writer").daemon(true).factory());
+    }
+}
@@ -6,6 +6,7 @@ import com.aimanager.qa.entity.FunctionCallHistory;
 import com.aimanager.qa.mapper.ExternalFunctionMapper;
 import com.aimanager.qa.mapper.FunctionCallHistoryMapper;
 import com.aimanager.qa.service.FunctionCallService;
+import com.aimanager.qa.service.ToolCatalogService;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.RequiredArgsConstructor;
@@ -27,6 +28,7 @@ public class FunctionController {
     private final ExternalFunctionMapper functionMapper;
     private final FunctionCallHistoryMapper historyMapper;
     private final FunctionCallService functionCallService;
+    private final ToolCatalogService toolCatalogService;
     
     /**
      * 获取所有函数列表
@@ -98,6 +100,7 @@ public class FunctionController {
         }
         
         functionMapper.insert(function);
+        toolCatalogService.invalidate();
         return Result.success();
     }
     
@@ -113,6 +116,7 @@ public class FunctionController {
         
         function.setId(id);
         functionMapper.updateById(function);
+        toolCatalogService.invalidate();
         return Result.success();
     }
     
@@ -128,6 +132,7 @@ public class FunctionController {
         
         function.setDeleted(1);
         functionMapper.updateById(function);
+        toolCatalogService.invalidate();
         return Result.success();
     }
     
@@ -143,6 +148,7 @@ public class FunctionController {
         
         function.setStatus(status);
         functionMapper.updateById(function);
+        toolCatalogService.invalidate();
         return Result.success();
     }
     
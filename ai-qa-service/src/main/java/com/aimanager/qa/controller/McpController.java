@@ -98,6 +98,15 @@ public class McpController {
         return Result.success();
     }
 
+    /**
+     * 设置MCP工具的结果缓存有效期（秒，0表示不缓存）
+     */
+    @PutMapping("/tools/{toolId}/cache-ttl")
+    public Result<Void> updateToolCacheTtl(@PathVariable Long toolId, @RequestParam Integer ttlSeconds) {
+        mcpService.updateToolCacheTtl(toolId, ttlSeconds);
+        return Result.success();
+    }
+
     /**
      * 调用MCP工具
      */
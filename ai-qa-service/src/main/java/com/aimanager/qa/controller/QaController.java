@@ -4,13 +4,19 @@ import com.aimanager.common.result.Result;
 import com.aimanager.qa.dto.QaHistoryVO;
 import com.aimanager.qa.dto.QaRequest;
 import com.aimanager.qa.dto.QaResponse;
+import com.aimanager.qa.service.AdmissionLimiter;
+import com.aimanager.qa.service.AnswerCacheService;
+import com.aimanager.qa.service.AuditWriter;
+import com.aimanager.qa.service.ContextPacker;
 import com.aimanager.qa.service.QaService;
+import com.aimanager.qa.service.ToolResultCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * AI问答控制器
@@ -21,6 +27,11 @@ import java.util.List;
 public class QaController {
 
     private final QaService qaService;
+    private final AuditWriter auditWriter;
+    private final AdmissionLimiter admissionLimiter;
+    private final AnswerCacheService answerCacheService;
+    private final ToolResultCache toolResultCache;
+    private final ContextPacker contextPacker;
 
     /**
      * 提问（非流式）
@@ -84,5 +95,44 @@ public class QaController {
         qaService.deleteSession(sessionId);
         return Result.success();
     }
-}
 
+    /**
+     * 获取审计记录写入统计信息
+     */
+    @GetMapping("/audit/stats")
+    public Result<Map<String, Object>> getAuditStats() {
+        return Result.success(auditWriter.getStats());
+    }
+
+    /**
+     * 获取问答准入控制状态（并发上限、在途、排队、拒绝次数）
+     */
+    @GetMapping("/admission/stats")
+    public Result<Map<String, Object>> getAdmissionStats() {
+        return Result.success(admissionLimiter.getStats());
+    }
+
+    /**
+     * 获取答案缓存统计信息
+     */
+    @GetMapping("/answer-cache/stats")
+    public Result<Map<String, Object>> getAnswerCacheStats() {
+        return Result.success(answerCacheService.getStats());
+    }
+
+    /**
+     * 获取工具结果缓存统计信息
+     */
+    @GetMapping("/tool-cache/stats")
+    public Result<Map<String, Object>> getToolCacheStats() {
+        return Result.success(toolResultCache.getStats());
+    }
+
+    /**
+     * 获取参考文档装箱统计信息（候选、放入、去重、合并、截断的分块数及平均token）
+     */
+    @GetMapping("/context/stats")
+    public Result<Map<String, Object>> getContextStats() {
+        return Result.success(contextPacker.getStats());
+    }
+}
@@ -1,5 +1,7 @@
 package com.aimanager.qa.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 
 import java.util.Map;
@@ -11,8 +13,9 @@ import java.util.Map;
 public class AgentExecuteResponse {
     
     /**
-     * 执行ID
+     * 执行ID（执行历史ID，序列化为字符串避免前端精度丢失）
      */
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long executionId;
     
     /**
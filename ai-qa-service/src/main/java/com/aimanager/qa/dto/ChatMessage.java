@@ -1,10 +1,13 @@
 package com.aimanager.qa.dto;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * 聊天消息
  */
@@ -15,7 +18,7 @@ import lombok.NoArgsConstructor;
 public class ChatMessage {
 
     /**
-     * 角色：system、user、assistant、function
+     * 角色：system、user、assistant、tool
      */
     private String role;
 
@@ -25,14 +28,16 @@ public class ChatMessage {
     private String content;
 
     /**
-     * 函数调用信息（当 role=assistant 且模型决定调用函数时）
+     * 工具调用列表（当 role=assistant 且模型决定调用工具时）
      */
-    private ModelChatResponse.FunctionCall functionCall;
+    @JsonProperty("tool_calls")
+    private List<ModelChatResponse.ToolCall> toolCalls;
 
     /**
-     * 函数名称（当 role=function 时）
+     * 对应的工具调用ID（当 role=tool 时）
      */
-    private String name;
+    @JsonProperty("tool_call_id")
+    private String toolCallId;
 
     /**
      * 便捷构造函数（只设置 role 和 content）
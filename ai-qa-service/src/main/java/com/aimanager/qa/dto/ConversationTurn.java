@@ -0,0 +1,24 @@
+package com.aimanager.qa.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 会话中的一轮问答（会话窗口缓存使用）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationTurn {
+
+    /**
+     * 问题
+     */
+    private String question;
+
+    /**
+     * 回答
+     */
+    private String answer;
+}
@@ -20,5 +20,7 @@ public class ModelChatRequest {
     private BigDecimal topP;
     private List<Map<String, Object>> functions;
     private String functionCall;
+    private List<Map<String, Object>> tools;
+    private String toolChoice;
 }
 
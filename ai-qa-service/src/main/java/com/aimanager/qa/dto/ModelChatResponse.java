@@ -2,6 +2,8 @@ package com.aimanager.qa.dto;
 
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * 模型调用响应DTO（来自 ai-model-service）
  */
@@ -16,6 +18,7 @@ public class ModelChatResponse {
     private String finishReason;
     private Long responseTime;
     private FunctionCall functionCall;
+    private List<ToolCall> toolCalls;
 
     /**
      * 函数调用信息
@@ -25,5 +28,15 @@ public class ModelChatResponse {
         private String name;
         private String arguments;
     }
+
+    /**
+     * 工具调用信息
+     */
+    @Data
+    public static class ToolCall {
+        private String id;
+        private String type;
+        private FunctionCall function;
+    }
 }
 
@@ -85,6 +85,11 @@ public class ExternalAgent extends BaseEntity {
      */
     private Integer retryTimes;
     
+    /**
+     * 结果缓存有效期（秒，0或空表示不缓存）
+     */
+    private Integer cacheTtlSeconds;
+    
     /**
      * 最大并发数
      */
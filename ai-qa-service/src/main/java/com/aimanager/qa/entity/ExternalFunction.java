@@ -73,6 +73,11 @@ public class ExternalFunction extends BaseEntity {
      */
     private Integer retryTimes;
     
+    /**
+     * 结果缓存有效期（秒，0或空表示不缓存）
+     */
+    private Integer cacheTtlSeconds;
+    
     /**
      * 状态（0-禁用 1-启用）
      */
@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.annotation.IdType;
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 import org.apache.ibatis.type.JdbcType;
 
@@ -17,9 +19,10 @@ import java.time.LocalDateTime;
 public class McpCallHistory {
 
     /**
-     * 主键ID
+     * 主键ID（雪花ID，写入前预先分配，以便异步写入前即可返回执行ID；序列化为字符串避免前端精度丢失）
      */
-    @TableId(type = IdType.AUTO)
+    @TableId(type = IdType.ASSIGN_ID)
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long id;
 
     /**
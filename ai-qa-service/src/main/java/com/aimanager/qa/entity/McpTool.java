@@ -46,5 +46,10 @@ public class McpTool extends BaseEntity {
      * 是否启用（0-禁用 1-启用）
      */
     private Integer enabled;
+
+    /**
+     * 结果缓存有效期（秒，0或空表示不缓存）
+     */
+    private Integer cacheTtlSeconds;
 }
 
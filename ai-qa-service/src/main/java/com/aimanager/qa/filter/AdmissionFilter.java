@@ -0,0 +1,123 @@
+package com.aimanager.qa.filter;
+
+import com.aimanager.common.exception.GlobalExceptionHandler;
+import com.aimanager.common.result.Result;
+import com.aimanager.qa.service.AdmissionLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 问答接口准入过滤器
+ * 提问接口（含流式）先向 {@link AdmissionLimiter} 申请许可，被拒绝时直接返回 429 和 Retry-After；
+ * 同步请求在返回时归还许可，流式请求在异步响应结束（完成、超时或出错）时归还。
+ * 异常统一以 HTTP 200 返回，因此成败以 {@link GlobalExceptionHandler#REQUEST_FAILED_ATTRIBUTE} 判断：
+ * 流式请求中 SseEmitter.completeWithError 的异常同样经异步分派交给全局异常处理器标记。
+ */
+@Component
+@RequiredArgsConstructor
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private static final String ASK_PATH = "/qa/ask";
+    private static final String ASK_STREAM_PATH = "/qa/ask/stream";
+
+    private final AdmissionLimiter admissionLimiter;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !ASK_PATH.equals(path) && !ASK_STREAM_PATH.equals(path);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        AdmissionLimiter.Permit permit = admissionLimiter.acquire(resolveUser(request));
+        if (!permit.isAdmitted()) {
+            reject(response, permit.getRetryAfterSeconds());
+            return;
+        }
+
+        boolean success = false;
+        try {
+            chain.doFilter(request, response);
+            success = !isFailed(request) && response.getStatus() < HttpStatus.INTERNAL_SERVER_ERROR.value();
+        } finally {
+            if (request.isAsyncStarted()) {
+                // 流式响应：持续时间取决于回答长度，不参与延迟采样，只以超时和出错收缩上限
+                request.getAsyncContext().addListener(new PermitReleaseListener(permit, request));
+            } else {
+                permit.release(success);
+            }
+        }
+    }
+
+    private static boolean isFailed(HttpServletRequest request) {
+        return request.getAttribute(GlobalExceptionHandler.REQUEST_FAILED_ATTRIBUTE) != null;
+    }
+
+    /**
+     * 请求来源用户：网关写入的 X-User-Id，直连时退化为客户端地址
+     */
+    private String resolveUser(HttpServletRequest request) {
+        String userId = request.getHeader("X-User-Id");
+        return userId != null && !userId.isEmpty() ? userId : request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, long retryAfterSeconds) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getOutputStream(),
+                Result.fail(HttpStatus.TOO_MANY_REQUESTS.value(), "当前问答请求过多，请稍后重试"));
+    }
+
+    /**
+     * 异步响应结束时归还许可
+     */
+    private static class PermitReleaseListener implements AsyncListener {
+
+        private final AdmissionLimiter.Permit permit;
+        private final HttpServletRequest request;
+        private volatile boolean failed;
+
+        PermitReleaseListener(AdmissionLimiter.Permit permit, HttpServletRequest request) {
+            this.permit = permit;
+            this.request = request;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.release(!failed && !isFailed(request), false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
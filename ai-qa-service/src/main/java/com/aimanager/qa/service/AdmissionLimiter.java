@@ -0,0 +1,273 @@
+package com.aimanager.qa.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 问答请求准入控制
+ * 全局并发上限按 AIMD 自适应：请求在目标延迟内成功完成时缓慢增加（每个上限周期约 +1），
+ * 超过目标延迟或失败时按比例收缩；每个用户另有固定的并发上限（含排队中的请求）。
+ * 超出全局上限的请求进入短优先队列等待，当前在途请求少的用户优先；等待超时或队列已满时立即拒绝。
+ */
+@Slf4j
+@Service
+public class AdmissionLimiter {
+
+    private final int perUserLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long maxWaitMs;
+    private final long targetLatencyMs;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparingInt(Waiter::priority).thenComparingLong(Waiter::seq));
+
+    /**
+     * 用户 -> 在途及排队中的请求数
+     */
+    private final Map<String, Integer> userInFlight = new HashMap<>();
+
+    private double limit;
+    private int inFlight;
+    private long seq;
+
+    /**
+     * 平滑后的请求延迟（毫秒），用于估算 Retry-After
+     */
+    private double smoothedLatencyMs;
+
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong rejectedGlobalCount = new AtomicLong();
+    private final AtomicLong rejectedUserCount = new AtomicLong();
+    private final AtomicLong limitDecreaseCount = new AtomicLong();
+
+    public AdmissionLimiter(@Value("${qa.admission.initial-limit:50}") int initialLimit,
+                            @Value("${qa.admission.min-limit:10}") int minLimit,
+                            @Value("${qa.admission.max-limit:200}") int maxLimit,
+                            @Value("${qa.admission.per-user-limit:4}") int perUserLimit,
+                            @Value("${qa.admission.queue-size:100}") int queueSize,
+                            @Value("${qa.admission.max-wait-ms:500}") long maxWaitMs,
+                            @Value("${qa.admission.target-latency-ms:30000}") long targetLatencyMs,
+                            @Value("${qa.admission.backoff-ratio:0.9}") double backoffRatio) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.perUserLimit = perUserLimit;
+        this.queueSize = queueSize;
+        this.maxWaitMs = maxWaitMs;
+        this.targetLatencyMs = targetLatencyMs;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 申请准入许可；被拒绝时返回的许可 {@link Permit#isAdmitted()} 为 false
+     */
+    public Permit acquire(String userId) {
+        lock.lock();
+        try {
+            int userCount = userInFlight.getOrDefault(userId, 0);
+            if (userCount >= perUserLimit) {
+                rejectedUserCount.incrementAndGet();
+                return Permit.rejected(retryAfterSeconds());
+            }
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                userInFlight.put(userId, userCount + 1);
+                inFlight++;
+                admittedCount.incrementAndGet();
+                return new Permit(this, userId);
+            }
+            if (waiters.size() >= queueSize) {
+                rejectedGlobalCount.incrementAndGet();
+                return Permit.rejected(retryAfterSeconds());
+            }
+
+            userInFlight.put(userId, userCount + 1);
+            Waiter waiter = new Waiter(userCount, seq++, lock.newCondition());
+            waiters.add(waiter);
+            queuedCount.incrementAndGet();
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            try {
+                while (!waiter.granted && remaining > 0) {
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!waiter.granted) {
+                waiters.remove(waiter);
+                releaseUser(userId);
+                rejectedGlobalCount.incrementAndGet();
+                return Permit.rejected(retryAfterSeconds());
+            }
+            admittedCount.incrementAndGet();
+            return new Permit(this, userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 准入状态统计信息
+     */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("limit", (int) limit);
+            stats.put("inFlight", inFlight);
+            stats.put("queued", waiters.size());
+            stats.put("activeUsers", userInFlight.size());
+            stats.put("perUserLimit", perUserLimit);
+            stats.put("smoothedLatencyMs", Math.round(smoothedLatencyMs));
+            stats.put("admittedCount", admittedCount.get());
+            stats.put("queuedCount", queuedCount.get());
+            stats.put("rejectedGlobalCount", rejectedGlobalCount.get());
+            stats.put("rejectedUserCount", rejectedUserCount.get());
+            stats.put("limitDecreaseCount", limitDecreaseCount.get());
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还许可并根据本次请求结果调整全局上限，然后按优先级放行等待中的请求
+     */
+    private void release(String userId, long latencyMs, boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            releaseUser(userId);
+
+            if (latencyMs >= 0) {
+                smoothedLatencyMs = smoothedLatencyMs == 0 ? latencyMs : smoothedLatencyMs * 0.9 + latencyMs * 0.1;
+            }
+            if (!success || latencyMs > targetLatencyMs) {
+                double decreased = Math.max(minLimit, limit * backoffRatio);
+                if ((int) decreased < (int) limit) {
+                    limitDecreaseCount.incrementAndGet();
+                    log.warn("问答并发上限下调: {} -> {}, latencyMs={}, success={}",
+                            (int) limit, (int) decreased, latencyMs, success);
+                }
+                limit = decreased;
+            } else if (inFlight + 1 >= (int) limit) {
+                // 只在上限被用满时增加，避免低负载下上限无限膨胀
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                Waiter next = waiters.poll();
+                next.granted = true;
+                inFlight++;
+                next.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseUser(String userId) {
+        userInFlight.computeIfPresent(userId, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 建议的重试间隔：按平滑延迟估算，至少 1 秒、至多 30 秒
+     */
+    private long retryAfterSeconds() {
+        return Math.max(1, Math.min(30, (long) Math.ceil(smoothedLatencyMs / 1000)));
+    }
+
+    /**
+     * 排队中的请求（优先级为入队时该用户已有的请求数，越小越优先）
+     */
+    private static class Waiter {
+
+        private final int priority;
+        private final long seq;
+        private final Condition condition;
+        private boolean granted;
+
+        Waiter(int priority, long seq, Condition condition) {
+            this.priority = priority;
+            this.seq = seq;
+            this.condition = condition;
+        }
+
+        int priority() {
+            return priority;
+        }
+
+        long seq() {
+            return seq;
+        }
+    }
+
+    /**
+     * 准入许可，请求结束时调用 {@link #release(boolean)} 归还（重复调用无效）
+     */
+    public static class Permit {
+
+        private final AdmissionLimiter limiter;
+        private final String userId;
+        private final long startNanos = System.nanoTime();
+        private final long retryAfterSeconds;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(AdmissionLimiter limiter, String userId) {
+            this.limiter = limiter;
+            this.userId = userId;
+            this.retryAfterSeconds = 0;
+        }
+
+        private Permit(long retryAfterSeconds) {
+            this.limiter = null;
+            this.userId = null;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        static Permit rejected(long retryAfterSeconds) {
+            return new Permit(retryAfterSeconds);
+        }
+
+        public boolean isAdmitted() {
+            return limiter != null;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        /**
+         * 归还许可；success 为 false 表示超时或失败，会使全局上限收缩
+         */
+        public void release(boolean success) {
+            release(success, true);
+        }
+
+        /**
+         * 归还许可；sampleLatency 为 false 时不以本次耗时调整上限（如长时间的流式请求）
+         */
+        public void release(boolean success, boolean sampleLatency) {
+            if (limiter != null && released.compareAndSet(false, true)) {
+                long latencyMs = sampleLatency ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) : -1;
+                limiter.release(userId, latencyMs, success);
+            }
+        }
+    }
+}
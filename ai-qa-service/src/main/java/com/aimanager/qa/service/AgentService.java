@@ -8,6 +8,7 @@ import com.aimanager.qa.entity.ExternalAgent;
 import com.aimanager.qa.mapper.AgentExecutionHistoryMapper;
 import com.aimanager.qa.mapper.ExternalAgentMapper;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -33,6 +34,9 @@ public class AgentService {
     private final AgentExecutionHistoryMapper historyMapper;
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final ToolCatalogService toolCatalogService;
+    private final AuditWriter auditWriter;
+    private final ToolResultCache toolResultCache;
     
     /**
      * 分页查询Agent
@@ -117,6 +121,7 @@ public class AgentService {
         }
         
         agentMapper.insert(agent);
+        toolCatalogService.invalidate();
         return agent.getId();
     }
     
@@ -125,6 +130,7 @@ public class AgentService {
      */
     public void updateAgent(ExternalAgent agent) {
         agentMapper.updateById(agent);
+        toolCatalogService.invalidate();
     }
     
     /**
@@ -132,6 +138,7 @@ public class AgentService {
      */
     public void deleteAgent(Long id) {
         agentMapper.deleteById(id);
+        toolCatalogService.invalidate();
     }
     
     /**
@@ -154,14 +161,24 @@ public class AgentService {
             throw new RuntimeException("Agent不存在或未启用: " + request.getAgentCode());
         }
 
+        // 配置了缓存有效期的Agent先查结果缓存，失败结果不缓存
+        return toolResultCache.get(ToolResultCache.KIND_AGENT, agent.getId(), agent.getCacheTtlSeconds(),
+                request.getInput(), () -> invokeAgent(agent, request, startTime),
+                response -> "SUCCESS".equals(response.getStatus()));
+    }
+
+    /**
+     * 调用Agent服务并记录执行历史
+     */
+    private AgentExecuteResponse invokeAgent(ExternalAgent agent, AgentExecuteRequest request, long startTime) {
         // 创建执行历史记录
         AgentExecutionHistory history = new AgentExecutionHistory();
+        history.setId(IdWorker.getId());  // 预先分配ID，历史异步写入前即可返回执行ID
         history.setSessionId(request.getSessionId());
         history.setAgentId(agent.getId());
         history.setAgentCode(agent.getAgentCode());
         history.setUserId(request.getUserId());
         history.setStartTime(LocalDateTime.now());
-        history.setStatus("RUNNING");
 
         try {
             history.setInputData(objectMapper.writeValueAsString(request.getInput()));
@@ -169,8 +186,6 @@ public class AgentService {
             log.error("序列化输入数据失败", e);
         }
 
-        historyMapper.insert(history);
-
         AgentExecuteResponse response = new AgentExecuteResponse();
         response.setExecutionId(history.getId());
         response.setAgentCode(agent.getAgentCode());
@@ -234,25 +249,19 @@ public class AgentService {
             response.setExecutionTime(executionTime);
             response.setCreateTime(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
 
-            // 更新历史记录
-            historyMapper.updateById(history);
+            // 以最终状态异步写入执行历史
+            history.setCreateTime(LocalDateTime.now());
+            auditWriter.submit(history);
         }
 
         return response;
     }
 
     /**
-     * 获取所有启用的Agent（用于AI调用）
+     * 获取所有启用的Agent（用于AI调用，取自工具目录快照）
      */
     public List<Map<String, Object>> getAvailableAgents() {
-        List<ExternalAgent> agents = agentMapper.selectList(
-                new LambdaQueryWrapper<ExternalAgent>()
-                        .eq(ExternalAgent::getStatus, 1)
-                        .eq(ExternalAgent::getDeleted, 0)
-                        .orderByDesc(ExternalAgent::getPriority)
-        );
-
-        return agents.stream().map(this::convertToAgentDefinition).collect(Collectors.toList());
+        return toolCatalogService.getCatalog().getAgents();
     }
 
     /**
@@ -352,25 +361,6 @@ public class AgentService {
         return vo;
     }
 
-    /**
-     * 转换为Agent定义（用于AI调用）
-     */
-    private Map<String, Object> convertToAgentDefinition(ExternalAgent agent) {
-        Map<String, Object> definition = new HashMap<>();
-        definition.put("name", agent.getAgentCode());
-        definition.put("description", agent.getDescription());
-
-        try {
-            if (agent.getInputSchema() != null) {
-                definition.put("parameters", objectMapper.readValue(agent.getInputSchema(), Map.class));
-            }
-        } catch (Exception e) {
-            log.error("解析输入Schema失败", e);
-        }
-
-        return definition;
-    }
-
     /**
      * 执行Agent（通过Function Call方式）
      * @param agentCode Agent编码
@@ -0,0 +1,423 @@
+package com.aimanager.qa.service;
+
+import com.aimanager.qa.dto.QaRequest;
+import com.aimanager.qa.entity.QaHistory;
+import com.aimanager.qa.mapper.QaHistoryMapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义答案缓存
+ * 按 模型 + 知识库 + 工具开关 分区，分区内以问题向量做最近邻匹配，相似度达到阈值即直接返回缓存的答案；
+ * 完全相同的问题不调用向量化。缓存条目记录生成时的语料版本（向量服务在语料变更时更新），
+ * 版本变化后整体失效。启动时用 t_qa_history 中最近一次语料变更之后的高频问题预热。
+ */
+@Slf4j
+@Service
+public class AnswerCacheService {
+
+    /**
+     * 语料版本键（向量服务写入，值为最近一次变更的毫秒时间戳）
+     */
+    private static final String CORPUS_VERSION_KEY = "vector:corpus:version";
+
+    /**
+     * 会话首轮：同一会话中没有更早的问答
+     */
+    private static final String FIRST_TURN_CONDITION = "NOT EXISTS (SELECT 1 FROM t_qa_history earlier"
+            + " WHERE earlier.session_id = t_qa_history.session_id AND earlier.id < t_qa_history.id)";
+
+    /**
+     * 会话内没有函数、Agent 或 MCP 工具调用记录
+     */
+    private static final String NO_TOOL_CALL_CONDITION =
+            "NOT EXISTS (SELECT 1 FROM t_function_call_history f WHERE f.session_id = t_qa_history.session_id)"
+            + " AND NOT EXISTS (SELECT 1 FROM t_agent_execution_history a WHERE a.session_id = t_qa_history.session_id)"
+            + " AND NOT EXISTS (SELECT 1 FROM t_mcp_call_history m WHERE m.session_id = t_qa_history.session_id)";
+
+    private final RestTemplate restTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final QaHistoryMapper qaHistoryMapper;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService askPrepareExecutor;
+
+    @Value("${vector.service.url}")
+    private String vectorServiceUrl;
+
+    @Value("${qa.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${qa.answer-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${qa.answer-cache.max-entries-per-partition:2000}")
+    private int maxEntriesPerPartition;
+
+    @Value("${qa.answer-cache.warmup-size:200}")
+    private int warmupSize;
+
+    @Value("${qa.answer-cache.warmup-min-count:2}")
+    private int warmupMinCount;
+
+    private final Duration ttl;
+    private final Cache<String, Partition> partitions;
+
+    /**
+     * 当前缓存条目所属的语料版本
+     */
+    private volatile long corpusVersion = -1;
+
+    private final AtomicLong exactHitCount = new AtomicLong();
+    private final AtomicLong semanticHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong bypassCount = new AtomicLong();
+    private final AtomicLong versionInvalidateCount = new AtomicLong();
+
+    public AnswerCacheService(RestTemplate restTemplate,
+                              StringRedisTemplate stringRedisTemplate,
+                              QaHistoryMapper qaHistoryMapper,
+                              ObjectMapper objectMapper,
+                              @Qualifier("askPrepareExecutor") ExecutorService askPrepareExecutor,
+                              @Value("${qa.answer-cache.max-partitions:1000}") long maxPartitions,
+                              @Value("${qa.answer-cache.ttl-minutes:1440}") long ttlMinutes) {
+        this.restTemplate = restTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.qaHistoryMapper = qaHistoryMapper;
+        this.objectMapper = objectMapper;
+        this.askPrepareExecutor = askPrepareExecutor;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.partitions = Caffeine.newBuilder()
+                .maximumSize(maxPartitions)
+                .expireAfterAccess(ttl)
+                .build();
+    }
+
+    /**
+     * 查询缓存
+     * 返回 null 表示缓存不可用（已关闭、语料版本或向量获取失败），本次既不读也不写缓存；
+     * 未命中时返回的结果携带问题向量，回答完成后交给 {@link #put} 避免重复向量化。
+     */
+    public Lookup lookup(QaRequest request) {
+        if (!enabled) {
+            return null;
+        }
+        long version = currentCorpusVersion();
+        if (version < 0) {
+            bypassCount.incrementAndGet();
+            return null;
+        }
+
+        String partitionKey = partitionKey(request.getModelId(), request.getKnowledgeBaseId(),
+                request.getEnableAgent(), request.getEnableFunctionCall(), request.getEnableMcp());
+        String question = normalize(request.getQuestion());
+        Partition partition = partitions.getIfPresent(partitionKey);
+
+        Entry exact = partition != null ? partition.findExact(question, expireBefore()) : null;
+        if (exact != null) {
+            exactHitCount.incrementAndGet();
+            return new Lookup(partitionKey, question, exact.vector, version, exact.answer, exact.confidence);
+        }
+
+        float[] vector = embed(request.getQuestion());
+        if (vector == null) {
+            bypassCount.incrementAndGet();
+            return null;
+        }
+        Entry nearest = partition != null ? partition.findNearest(vector, similarityThreshold, expireBefore()) : null;
+        if (nearest != null) {
+            semanticHitCount.incrementAndGet();
+            log.info("答案缓存语义命中: question={}, cachedQuestion={}", request.getQuestion(), nearest.question);
+            return new Lookup(partitionKey, question, vector, version, nearest.answer, nearest.confidence);
+        }
+        missCount.incrementAndGet();
+        return new Lookup(partitionKey, question, vector, version, null, null);
+    }
+
+    /**
+     * 缓存新生成的答案（查询后语料已变更则不缓存）
+     */
+    public void put(Lookup lookup, String answer, Double confidence) {
+        if (lookup == null || lookup.isHit() || answer == null || answer.isEmpty()
+                || lookup.corpusVersion() != corpusVersion) {
+            return;
+        }
+        partitions.get(lookup.partitionKey(), key -> new Partition(maxEntriesPerPartition))
+                .add(new Entry(lookup.question(), lookup.embedding(), answer, confidence, System.currentTimeMillis()));
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long entries = partitions.asMap().values().stream().mapToLong(Partition::size).sum();
+        long hits = exactHitCount.get() + semanticHitCount.get();
+        long misses = missCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("corpusVersion", corpusVersion);
+        stats.put("partitions", partitions.estimatedSize());
+        stats.put("entries", entries);
+        stats.put("exactHitCount", exactHitCount.get());
+        stats.put("semanticHitCount", semanticHitCount.get());
+        stats.put("missCount", misses);
+        stats.put("bypassCount", bypassCount.get());
+        stats.put("versionInvalidateCount", versionInvalidateCount.get());
+        stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * 启动后在后台用高频问题预热
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled || warmupSize <= 0) {
+            return;
+        }
+        askPrepareExecutor.execute(() -> {
+            try {
+                doWarmUp();
+            } catch (Exception e) {
+                log.warn("答案缓存预热失败: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 取最近一次语料变更之后被问过至少 warmupMinCount 次的问题，按次数倒序，用其最新的回答填充默认工具开关下的分区
+     * （历史记录不保存知识库和工具开关，按 QaRequest 的默认值归入分区）。
+     * 与在线写入缓存的条件一致，只取会话首轮且会话内没有任何工具调用记录的问答：
+     * 追问的回答依赖上文，工具辅助的回答依赖调用时的外部数据，都不能脱离原会话复用。
+     */
+    private void doWarmUp() {
+        long version = currentCorpusVersion();
+        if (version < 0) {
+            return;
+        }
+
+        QueryWrapper<QaHistory> wrapper = new QueryWrapper<QaHistory>()
+                .select("MAX(id) AS id")
+                .isNotNull("answer")
+                .ne("answer", "")
+                .apply(FIRST_TURN_CONDITION)
+                .apply(NO_TOOL_CALL_CONDITION)
+                .groupBy("question", "model_id")
+                .having("COUNT(*) >= {0}", warmupMinCount)
+                .orderByDesc("COUNT(*)")
+                .last("LIMIT " + warmupSize);
+        if (version > 0) {
+            wrapper.ge("create_time", LocalDateTime.ofInstant(Instant.ofEpochMilli(version), ZoneId.systemDefault()));
+        }
+        List<Object> ids = qaHistoryMapper.selectObjs(wrapper);
+        if (ids.isEmpty()) {
+            log.info("答案缓存无可预热的问题");
+            return;
+        }
+
+        QaRequest defaults = new QaRequest();
+        int warmed = 0;
+        for (QaHistory history : qaHistoryMapper.selectBatchIds(ids.stream().map(id -> ((Number) id).longValue()).toList())) {
+            if (version != corpusVersion) {
+                log.info("预热期间语料已变更，停止预热");
+                return;
+            }
+            float[] vector = embed(history.getQuestion());
+            if (vector == null) {
+                continue;
+            }
+            String partitionKey = partitionKey(history.getModelId(), defaults.getKnowledgeBaseId(),
+                    defaults.getEnableAgent(), defaults.getEnableFunctionCall(), defaults.getEnableMcp());
+            put(new Lookup(partitionKey, normalize(history.getQuestion()), vector, version, null, null),
+                    history.getAnswer(), null);
+            warmed++;
+        }
+        log.info("答案缓存预热完成: {}个问题", warmed);
+    }
+
+    /**
+     * 读取语料版本（键不存在视为 0），版本变化时清空缓存；读取失败返回 -1
+     */
+    private long currentCorpusVersion() {
+        long version;
+        try {
+            String value = stringRedisTemplate.opsForValue().get(CORPUS_VERSION_KEY);
+            version = value == null ? 0 : Long.parseLong(value);
+        } catch (Exception e) {
+            log.warn("读取语料版本失败，跳过答案缓存: {}", e.getMessage());
+            return -1;
+        }
+        if (version != corpusVersion) {
+            synchronized (this) {
+                if (version != corpusVersion) {
+                    if (corpusVersion >= 0) {
+                        versionInvalidateCount.incrementAndGet();
+                        log.info("语料版本变化，清空答案缓存: {} -> {}", corpusVersion, version);
+                    }
+                    partitions.invalidateAll();
+                    corpusVersion = version;
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * 通过向量服务获取问题向量（归一化后返回，相似度计算只需点积）
+     */
+    private float[] embed(String text) {
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+            MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+            form.add("text", text);
+
+            String body = restTemplate.postForObject(vectorServiceUrl + "/vector/embedding",
+                    new HttpEntity<>(form, headers), String.class);
+            JsonNode jsonNode = objectMapper.readTree(body);
+            JsonNode dataNode = jsonNode.path("data");
+            if (jsonNode.path("code").asInt() != 200 || !dataNode.isArray() || dataNode.isEmpty()) {
+                log.warn("问题向量化失败: {}", jsonNode.path("message").asText());
+                return null;
+            }
+
+            float[] vector = new float[dataNode.size()];
+            double norm = 0;
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) dataNode.get(i).asDouble();
+                norm += vector[i] * vector[i];
+            }
+            norm = Math.sqrt(norm);
+            if (norm == 0) {
+                return null;
+            }
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= (float) norm;
+            }
+            return vector;
+        } catch (Exception e) {
+            log.warn("问题向量化失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private long expireBefore() {
+        return System.currentTimeMillis() - ttl.toMillis();
+    }
+
+    private static String partitionKey(Long modelId, Long knowledgeBaseId,
+                                       Boolean enableAgent, Boolean enableFunctionCall, Boolean enableMcp) {
+        return modelId + ":" + knowledgeBaseId + ":" + Boolean.TRUE.equals(enableAgent) + ":"
+                + Boolean.TRUE.equals(enableFunctionCall) + ":" + Boolean.TRUE.equals(enableMcp);
+    }
+
+    private static String normalize(String question) {
+        return question == null ? "" : question.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 缓存查询结果
+     *
+     * @param answer 命中时为缓存的答案，未命中为 null
+     */
+    public record Lookup(String partitionKey, String question, float[] embedding, long corpusVersion,
+                         String answer, Double confidence) {
+
+        public boolean isHit() {
+            return answer != null;
+        }
+    }
+
+    private record Entry(String question, float[] vector, String answer, Double confidence, long createdAt) {
+    }
+
+    /**
+     * 同一分区内的缓存条目（超出容量时淘汰最早写入的）
+     */
+    private static class Partition {
+
+        private final int capacity;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+        Partition(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(Entry entry) {
+            entries.removeIf(existing -> existing.question.equals(entry.question));
+            if (entries.size() >= capacity) {
+                entries.pollFirst();
+            }
+            entries.addLast(entry);
+        }
+
+        synchronized Entry findExact(String question, long expireBefore) {
+            removeExpired(expireBefore);
+            for (Entry entry : entries) {
+                if (Objects.equals(entry.question, question)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        synchronized Entry findNearest(float[] vector, double threshold, long expireBefore) {
+            removeExpired(expireBefore);
+            Entry best = null;
+            double bestScore = threshold;
+            for (Entry entry : entries) {
+                if (entry.vector.length != vector.length) {
+                    continue;
+                }
+                double score = 0;
+                for (int i = 0; i < vector.length; i++) {
+                    score += entry.vector[i] * vector[i];
+                }
+                if (score >= bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        private void removeExpired(long expireBefore) {
+            Iterator<Entry> iterator = entries.iterator();
+            while (iterator.hasNext() && iterator.next().createdAt < expireBefore) {
+                iterator.remove();
+            }
+        }
+    }
+}
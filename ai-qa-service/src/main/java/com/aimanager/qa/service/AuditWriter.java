@@ -0,0 +1,219 @@
+package com.aimanager.qa.service;
+
+import com.baomidou.mybatisplus.extension.toolkit.Db;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 审计记录异步写入器
+ * 问答、函数、Agent、MCP 调用历史在请求完成时以最终状态提交到无锁有界队列，
+ * 由单个写线程按实体类型分组批量插入（JDBC batch），请求线程不再等待数据库。
+ * 队列满时先等待写线程腾出空间（背压），超时后按溢出策略在调用线程同步写入或丢弃；停机时写完队列中的全部记录。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AuditWriter {
+
+    /**
+     * 溢出策略：调用线程同步写入
+     */
+    public static final String OVERFLOW_CALLER_RUNS = "CALLER_RUNS";
+
+    /**
+     * 溢出策略：丢弃并计数
+     */
+    public static final String OVERFLOW_DROP = "DROP";
+
+    @Qualifier("auditWriterExecutor")
+    private final ExecutorService auditWriterExecutor;
+
+    @Value("${qa.audit.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${qa.audit.batch-size:200}")
+    private int batchSize;
+
+    @Value("${qa.audit.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${qa.audit.backpressure-timeout-ms:50}")
+    private long backpressureTimeoutMs;
+
+    @Value("${qa.audit.overflow-policy:CALLER_RUNS}")
+    private String overflowPolicy;
+
+    @Value("${qa.audit.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private volatile Thread writerThread;
+    private volatile boolean stopping;
+
+    @PostConstruct
+    public void start() {
+        auditWriterExecutor.execute(this::runWriter);
+    }
+
+    /**
+     * 提交一条最终状态的审计记录（实体需有对应的 Mapper）
+     */
+    public void submit(Object item) {
+        if (item == null) {
+            return;
+        }
+        if (!stopping && reserve()) {
+            queue.offer(item);
+            if (pending.get() >= batchSize) {
+                LockSupport.unpark(writerThread);
+            }
+            return;
+        }
+
+        if (!stopping && OVERFLOW_DROP.equalsIgnoreCase(overflowPolicy)) {
+            long dropped = droppedCount.incrementAndGet();
+            if (dropped % 1000 == 1) {
+                log.warn("审计队列已满，丢弃记录: type={}, 累计丢弃={}", item.getClass().getSimpleName(), dropped);
+            }
+            return;
+        }
+
+        // 队列已满或正在停机：调用线程同步写入
+        callerRunsCount.incrementAndGet();
+        writeBatch(item.getClass(), List.of(item));
+    }
+
+    /**
+     * 审计写入统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pending", pending.get());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("writtenCount", writtenCount.get());
+        stats.put("droppedCount", droppedCount.get());
+        stats.put("callerRunsCount", callerRunsCount.get());
+        stats.put("failedCount", failedCount.get());
+        return stats;
+    }
+
+    /**
+     * 停机时写完队列中的全部记录
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        LockSupport.unpark(writerThread);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        if (pending.get() > 0) {
+            log.warn("停机时仍有审计记录未写入: pending={}", pending.get());
+        } else {
+            log.info("审计队列已全部写入: written={}", writtenCount.get());
+        }
+    }
+
+    /**
+     * 占用一个队列位置；队列满时等待写线程腾出空间，超时返回 false
+     */
+    private boolean reserve() {
+        long deadline = 0;
+        while (true) {
+            int current = pending.get();
+            if (current < queueCapacity) {
+                if (pending.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            if (deadline == 0) {
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backpressureTimeoutMs);
+                LockSupport.unpark(writerThread);
+            } else if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void runWriter() {
+        writerThread = Thread.currentThread();
+        while (true) {
+            if (pending.get() < batchSize && !stopping) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMs));
+            }
+            try {
+                drain();
+            } catch (Exception e) {
+                log.error("审计记录写入异常: {}", e.getMessage(), e);
+            }
+            if (stopping && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 取出队列中的记录，按实体类型分组后批量插入
+     */
+    private void drain() {
+        while (!queue.isEmpty()) {
+            Map<Class<?>, List<Object>> batches = new LinkedHashMap<>();
+            int taken = 0;
+            Object item;
+            while (taken < batchSize && (item = queue.poll()) != null) {
+                batches.computeIfAbsent(item.getClass(), type -> new ArrayList<>()).add(item);
+                taken++;
+            }
+            try {
+                batches.forEach(this::writeBatch);
+            } finally {
+                pending.addAndGet(-taken);
+            }
+        }
+    }
+
+    private void writeBatch(Class<?> type, List<Object> records) {
+        try {
+            Db.saveBatch(records, records.size());
+            writtenCount.addAndGet(records.size());
+        } catch (Exception e) {
+            log.warn("审计记录批量写入失败，逐条重试: type={}, size={}, error={}",
+                    type.getSimpleName(), records.size(), e.getMessage());
+            for (Object item : records) {
+                try {
+                    Db.save(item);
+                    writtenCount.incrementAndGet();
+                } catch (Exception single) {
+                    failedCount.incrementAndGet();
+                    log.error("审计记录写入失败: type={}, error={}", type.getSimpleName(), single.getMessage());
+                }
+            }
+        }
+    }
+}
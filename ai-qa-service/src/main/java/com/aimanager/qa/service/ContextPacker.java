@@ -0,0 +1,445 @@
+package com.aimanager.qa.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RAG 参考文档上下文装箱
+ * 按模型估算 token（本地按字符类别估算，不加载分词器）：先去掉重复的分块，同一文档中相邻的分块合并为连续片段并去掉首尾重叠，
+ * 再按检索得分从高到低贪心放入 token 预算。预算为模型上下文窗口扣除回答预留、系统提示词、历史对话和当前问题后的剩余部分，
+ * 且不超过 qa.context.max-context-tokens；合并片段放不下时拆回单个分块，单个分块放不下时截断到剩余预算。
+ */
+@Slf4j
+@Service
+public class ContextPacker {
+
+    /**
+     * 每条消息的固定开销（角色、分隔符）
+     */
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    /**
+     * 相邻分块首尾重叠的最短判定长度（字符），更短的公共部分视为巧合
+     */
+    private static final int MIN_OVERLAP_CHARS = 8;
+
+    /**
+     * 未知模型使用的估算参数：每个中日韩字符约 1 个 token，其他文字约 4 个字符 1 个 token
+     */
+    private static final TokenProfile DEFAULT_PROFILE = new TokenProfile("default", 1.0, 4.0);
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final Cache<Long, ModelBudget> modelBudgets;
+
+    @Value("${model.service.url:http://localhost:8084}")
+    private String modelServiceUrl;
+
+    @Value("${qa.context.context-window:8192}")
+    private int contextWindow;
+
+    @Value("${qa.context.answer-reserve-tokens:1024}")
+    private int answerReserveTokens;
+
+    @Value("${qa.context.max-context-tokens:4000}")
+    private int maxContextTokens;
+
+    @Value("${qa.context.min-piece-tokens:64}")
+    private int minPieceTokens;
+
+    @Value("${qa.context.max-overlap-chars:200}")
+    private int maxOverlapChars;
+
+    private final AtomicLong packCount = new AtomicLong();
+    private final AtomicLong candidateCount = new AtomicLong();
+    private final AtomicLong selectedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong truncatedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong packedTokens = new AtomicLong();
+
+    public ContextPacker(RestTemplate restTemplate,
+                         ObjectMapper objectMapper,
+                         @Value("${qa.context.model-info-ttl-minutes:10}") long modelInfoTtlMinutes) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.modelBudgets = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.ofMinutes(modelInfoTtlMinutes))
+                .build();
+    }
+
+    /**
+     * 模型的 token 估算参数与回答预留（本地缓存，查询失败时使用默认值且不缓存）
+     */
+    public ModelBudget budgetOf(Long modelId) {
+        if (modelId == null) {
+            return new ModelBudget(DEFAULT_PROFILE, answerReserveTokens);
+        }
+        ModelBudget cached = modelBudgets.getIfPresent(modelId);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            ResponseEntity<String> response = restTemplate.getForEntity(
+                    modelServiceUrl + "/model/" + modelId, String.class);
+            if (response.getStatusCode() == HttpStatus.OK) {
+                JsonNode jsonNode = objectMapper.readTree(response.getBody());
+                if (jsonNode.path("code").asInt() == 200) {
+                    JsonNode data = jsonNode.path("data");
+                    TokenProfile profile = profileOf(data.path("modelCode").asText(""), data.path("provider").asText(""));
+                    int maxTokens = data.path("maxTokens").asInt(0);
+                    ModelBudget budget = new ModelBudget(profile, maxTokens > 0 ? maxTokens : answerReserveTokens);
+                    modelBudgets.put(modelId, budget);
+                    log.debug("模型token估算参数: modelId={}, profile={}, answerReserve={}",
+                            modelId, profile.name(), budget.answerReserveTokens());
+                    return budget;
+                }
+            }
+            log.warn("获取模型信息失败，使用默认估算参数: modelId={}, status={}", modelId, response.getStatusCode());
+        } catch (Exception e) {
+            log.warn("获取模型信息异常，使用默认估算参数: modelId={}, error={}", modelId, e.getMessage());
+        }
+        return new ModelBudget(DEFAULT_PROFILE, answerReserveTokens);
+    }
+
+    /**
+     * 将检索到的分块装入 token 预算并格式化为参考文档内容
+     *
+     * @param pieces        检索结果（分块或整篇文档）
+     * @param budget        模型估算参数
+     * @param promptOverhead 除参考文档外的提示内容（系统提示词、历史对话、当前问题）
+     */
+    public String pack(List<Piece> pieces, ModelBudget budget, List<String> promptOverhead) {
+        if (pieces == null || pieces.isEmpty()) {
+            return "";
+        }
+        TokenProfile profile = budget.profile();
+        int overhead = 0;
+        for (String text : promptOverhead) {
+            overhead += profile.estimate(text) + MESSAGE_OVERHEAD_TOKENS;
+        }
+        int available = Math.min(maxContextTokens, contextWindow - budget.answerReserveTokens() - overhead);
+        packCount.incrementAndGet();
+        candidateCount.addAndGet(pieces.size());
+        if (available < minPieceTokens) {
+            droppedCount.addAndGet(pieces.size());
+            log.warn("上下文预算不足，不放入参考文档: window={}, answerReserve={}, overhead={}",
+                    contextWindow, budget.answerReserveTokens(), overhead);
+            return "";
+        }
+
+        List<Span> spans = mergeAdjacent(deduplicate(pieces));
+        PriorityQueue<Span> queue = new PriorityQueue<>(Comparator.comparingDouble(Span::score).reversed());
+        for (Span span : spans) {
+            span.tokens = profile.estimate(span.content);
+            queue.add(span);
+        }
+
+        int remaining = available;
+        List<Span> selected = new ArrayList<>();
+        while (!queue.isEmpty() && remaining >= minPieceTokens) {
+            Span span = queue.poll();
+            if (span.tokens <= remaining) {
+                selected.add(span);
+                remaining -= span.tokens;
+            } else if (span.members.size() > 1) {
+                // 合并片段放不下时拆回单个分块，按各自得分重新排队
+                for (Piece member : span.members) {
+                    Span single = new Span(member);
+                    single.tokens = profile.estimate(single.content);
+                    queue.add(single);
+                }
+            } else {
+                span.content = profile.truncate(span.content, remaining) + "...";
+                span.tokens = remaining;
+                selected.add(span);
+                remaining = 0;
+                truncatedCount.incrementAndGet();
+            }
+        }
+        for (Span left : queue) {
+            droppedCount.addAndGet(left.members.size());
+        }
+
+        String context = format(selected);
+        int used = available - remaining;
+        selectedCount.addAndGet(selected.stream().mapToInt(span -> span.members.size()).sum());
+        packedTokens.addAndGet(used);
+        log.info("参考文档装箱完成: 候选{}个, 放入片段{}个, 预算={}token, 使用≈{}token, 上下文长度={}",
+                pieces.size(), selected.size(), available, used, context.length());
+        return context;
+    }
+
+    /**
+     * 装箱统计信息
+     */
+    public Map<String, Object> getStats() {
+        long packs = packCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("packCount", packs);
+        stats.put("candidateCount", candidateCount.get());
+        stats.put("selectedCount", selectedCount.get());
+        stats.put("duplicateCount", duplicateCount.get());
+        stats.put("mergedCount", mergedCount.get());
+        stats.put("truncatedCount", truncatedCount.get());
+        stats.put("droppedCount", droppedCount.get());
+        stats.put("avgContextTokens", packs == 0 ? 0 : packedTokens.get() / packs);
+        stats.put("cachedModels", modelBudgets.estimatedSize());
+        return stats;
+    }
+
+    /**
+     * 按模型编码和提供方选择估算参数：中文优化的分词器每个汉字不足 1 个 token，
+     * o200k 系列约 0.8，cl100k 等早期分词器约 1.2
+     */
+    private TokenProfile profileOf(String modelCode, String provider) {
+        String name = (modelCode + " " + provider).toLowerCase(Locale.ROOT);
+        if (containsAny(name, "qwen", "deepseek", "glm", "chatglm", "zhipu", "baichuan", "ernie", "wenxin",
+                "moonshot", "kimi", "yi-", "hunyuan", "doubao", "spark", "minimax")) {
+            return new TokenProfile("chinese", 0.7, 3.6);
+        }
+        if (containsAny(name, "gpt-4o", "gpt-4.1", "gpt-5", "o1", "o3", "o4")) {
+            return new TokenProfile("o200k", 0.8, 4.2);
+        }
+        if (containsAny(name, "gpt", "openai", "llama", "mistral", "claude", "gemini")) {
+            return new TokenProfile("cl100k", 1.2, 4.0);
+        }
+        return DEFAULT_PROFILE;
+    }
+
+    private boolean containsAny(String text, String... keywords) {
+        for (String keyword : keywords) {
+            if (text.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 去掉重复分块：同一文档的同一分块只保留得分最高的一次，内容完全相同的分块（如复制的文档）只保留一份
+     */
+    private List<Piece> deduplicate(List<Piece> pieces) {
+        Map<String, Piece> byPosition = new LinkedHashMap<>();
+        for (Piece piece : pieces) {
+            if (piece.content() == null || piece.content().isBlank()) {
+                continue;
+            }
+            String key = piece.docId() + ":" + piece.chunkIndex();
+            Piece existing = byPosition.get(key);
+            if (existing != null) {
+                duplicateCount.incrementAndGet();
+                if (piece.score() > existing.score()) {
+                    byPosition.put(key, piece);
+                }
+            } else {
+                byPosition.put(key, piece);
+            }
+        }
+
+        List<Piece> sorted = new ArrayList<>(byPosition.values());
+        sorted.sort(Comparator.comparingDouble(Piece::score).reversed());
+        Set<String> seenContent = new HashSet<>();
+        List<Piece> unique = new ArrayList<>();
+        for (Piece piece : sorted) {
+            if (seenContent.add(piece.content().strip())) {
+                unique.add(piece);
+            } else {
+                duplicateCount.incrementAndGet();
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * 同一文档中分块序号连续的分块合并为一个片段，得分取其中最高者
+     */
+    private List<Span> mergeAdjacent(List<Piece> pieces) {
+        Map<Long, List<Piece>> byDoc = new LinkedHashMap<>();
+        for (Piece piece : pieces) {
+            byDoc.computeIfAbsent(piece.docId(), docId -> new ArrayList<>()).add(piece);
+        }
+
+        List<Span> spans = new ArrayList<>();
+        for (List<Piece> docPieces : byDoc.values()) {
+            docPieces.sort(Comparator.comparingInt(Piece::chunkIndex));
+            Span current = null;
+            for (Piece piece : docPieces) {
+                if (current != null && piece.chunkIndex() >= 0 && piece.chunkIndex() == current.lastIndex() + 1) {
+                    current.append(piece, overlap(current.content, piece.content()));
+                    mergedCount.incrementAndGet();
+                } else {
+                    current = new Span(piece);
+                    spans.add(current);
+                }
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * 前一段结尾与后一段开头的重叠长度（字符）
+     */
+    private int overlap(String previous, String next) {
+        int max = Math.min(maxOverlapChars, Math.min(previous.length(), next.length()));
+        for (int length = max; length >= MIN_OVERLAP_CHARS; length--) {
+            if (previous.regionMatches(previous.length() - length, next, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 按文档分组输出：文档按其最高得分排序，文档内按分块顺序排列
+     */
+    private String format(List<Span> selected) {
+        Map<Long, List<Span>> byDoc = new LinkedHashMap<>();
+        for (Span span : selected) {
+            byDoc.computeIfAbsent(span.docId, docId -> new ArrayList<>()).add(span);
+        }
+
+        StringBuilder context = new StringBuilder();
+        for (List<Span> docSpans : byDoc.values()) {
+            docSpans.sort(Comparator.comparingInt(Span::firstIndex));
+            context.append("\n\n【文档：").append(docSpans.get(0).docTitle).append("】\n");
+            for (Span span : docSpans) {
+                if (span.firstIndex() >= 0) {
+                    context.append("\n[片段").append(span.firstIndex() + 1);
+                    if (span.lastIndex() > span.firstIndex()) {
+                        context.append("-").append(span.lastIndex() + 1);
+                    }
+                    context.append("]: ");
+                }
+                context.append(span.content);
+            }
+        }
+        return context.toString();
+    }
+
+    /**
+     * 检索得到的一段参考内容
+     *
+     * @param docId      文档ID
+     * @param docTitle   文档标题
+     * @param chunkIndex 分块序号（整篇文档为 -1）
+     * @param content    内容
+     * @param score      相关度（越大越相关；向量检索的 L2 距离须先换算为相似度，整篇文档回退时按检索名次给分）
+     */
+    public record Piece(Long docId, String docTitle, int chunkIndex, String content, double score) {
+    }
+
+    /**
+     * 模型的估算参数与回答预留 token
+     */
+    public record ModelBudget(TokenProfile profile, int answerReserveTokens) {
+    }
+
+    /**
+     * 按字符类别估算 token：中日韩字符按固定比例计，字母数字按平均每 token 字符数计，空白不计，其他符号各计 1 个
+     */
+    public record TokenProfile(String name, double tokensPerCjkChar, double charsPerToken) {
+
+        public int estimate(String text) {
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            double tokens = 0;
+            for (int i = 0; i < text.length(); i++) {
+                tokens += weight(text.charAt(i));
+            }
+            return (int) Math.ceil(tokens);
+        }
+
+        /**
+         * 截取不超过 maxTokens 的前缀
+         */
+        public String truncate(String text, int maxTokens) {
+            double tokens = 0;
+            for (int i = 0; i < text.length(); i++) {
+                tokens += weight(text.charAt(i));
+                if (tokens > maxTokens) {
+                    return text.substring(0, i);
+                }
+            }
+            return text;
+        }
+
+        private double weight(char c) {
+            if (Character.isWhitespace(c)) {
+                return 0;
+            }
+            if (c < 0x80) {
+                return Character.isLetterOrDigit(c) ? 1.0 / charsPerToken : 1.0;
+            }
+            Character.UnicodeScript script = Character.UnicodeScript.of(c);
+            if (script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                    || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL) {
+                return tokensPerCjkChar;
+            }
+            return Character.isLetterOrDigit(c) ? 1.0 / charsPerToken : 1.0;
+        }
+    }
+
+    /**
+     * 装箱单元：单个分块或同一文档中连续分块合并后的片段
+     */
+    private static class Span {
+
+        private final Long docId;
+        private final String docTitle;
+        private final List<Piece> members = new ArrayList<>();
+        private String content;
+        private double score;
+        private int tokens;
+
+        Span(Piece piece) {
+            this.docId = piece.docId();
+            this.docTitle = piece.docTitle();
+            this.content = piece.content();
+            this.score = piece.score();
+            this.members.add(piece);
+        }
+
+        void append(Piece piece, int overlapChars) {
+            content = content + "\n" + piece.content().substring(overlapChars);
+            score = Math.max(score, piece.score());
+            members.add(piece);
+        }
+
+        double score() {
+            return score;
+        }
+
+        int firstIndex() {
+            return members.get(0).chunkIndex();
+        }
+
+        int lastIndex() {
+            return members.get(members.size() - 1).chunkIndex();
+        }
+    }
+}
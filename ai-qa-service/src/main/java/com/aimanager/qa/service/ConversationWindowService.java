@@ -0,0 +1,213 @@
+package com.aimanager.qa.service;
+
+import com.aimanager.qa.dto.ConversationTurn;
+import com.aimanager.qa.entity.QaHistory;
+import com.aimanager.qa.mapper.QaHistoryMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 会话窗口服务
+ * 每个会话在内存中保留最近若干轮问答（环形缓冲），以 Redis 列表为共享存储，
+ * 回答完成时追加，空闲超时淘汰；只有内存和 Redis 都未命中时才查询 t_qa_history。
+ * 某实例追加后通过 Redis 通知其他实例丢弃本地窗口，下次读取时从 Redis 重新加载。
+ */
+@Slf4j
+@Service
+public class ConversationWindowService {
+
+    private static final String KEY_PREFIX = "qa:conversation:";
+
+    private final QaHistoryMapper qaHistoryMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+    private final ObjectMapper objectMapper;
+    private final int windowSize;
+    private final Duration idleTimeout;
+    private final String invalidateChannel;
+
+    /**
+     * 实例标识，忽略自己发布的失效消息
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final Cache<String, Window> windows;
+
+    public ConversationWindowService(QaHistoryMapper qaHistoryMapper,
+                                     StringRedisTemplate stringRedisTemplate,
+                                     RedisMessageListenerContainer redisMessageListenerContainer,
+                                     ObjectMapper objectMapper,
+                                     @Value("${qa.conversation.window-size:10}") int windowSize,
+                                     @Value("${qa.conversation.max-sessions:10000}") long maxSessions,
+                                     @Value("${qa.conversation.idle-minutes:30}") long idleMinutes,
+                                     @Value("${qa.conversation.channel:qa:conversation:invalidate}") String invalidateChannel) {
+        this.qaHistoryMapper = qaHistoryMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+        this.objectMapper = objectMapper;
+        this.windowSize = windowSize;
+        this.idleTimeout = Duration.ofMinutes(idleMinutes);
+        this.invalidateChannel = invalidateChannel;
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(idleTimeout)
+                .build();
+    }
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int separator = body.indexOf(':');
+            if (separator > 0 && !instanceId.equals(body.substring(0, separator))) {
+                windows.invalidate(body.substring(separator + 1));
+            }
+        }, new ChannelTopic(invalidateChannel));
+    }
+
+    /**
+     * 获取会话最近的问答（按时间正序）
+     */
+    public List<ConversationTurn> getRecentTurns(String sessionId) {
+        return windows.get(sessionId, this::loadWindow).snapshot();
+    }
+
+    /**
+     * 追加一轮问答
+     */
+    public void append(String sessionId, String question, String answer) {
+        ConversationTurn turn = new ConversationTurn(question, answer);
+        Window window = windows.getIfPresent(sessionId);
+        if (window != null) {
+            window.add(turn);
+        }
+
+        try {
+            String key = KEY_PREFIX + sessionId;
+            // 只在 Redis 已有窗口时追加；没有时由下次读取从数据库完整加载，避免生成只含最新一轮的残缺窗口
+            Long size = stringRedisTemplate.opsForList().rightPushIfPresent(key, objectMapper.writeValueAsString(turn));
+            if (size != null && size > 0) {
+                stringRedisTemplate.opsForList().trim(key, -windowSize, -1);
+                stringRedisTemplate.expire(key, idleTimeout);
+            }
+            stringRedisTemplate.convertAndSend(invalidateChannel, instanceId + ":" + sessionId);
+        } catch (Exception e) {
+            log.warn("写入会话窗口失败，删除共享窗口: sessionId={}, error={}", sessionId, e.getMessage());
+            evictShared(sessionId);
+        }
+    }
+
+    /**
+     * 删除会话窗口（会话被删除时调用）
+     */
+    public void evict(String sessionId) {
+        windows.invalidate(sessionId);
+        evictShared(sessionId);
+        try {
+            stringRedisTemplate.convertAndSend(invalidateChannel, instanceId + ":" + sessionId);
+        } catch (Exception e) {
+            log.warn("发布会话窗口失效消息失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+
+    private void evictShared(String sessionId) {
+        try {
+            stringRedisTemplate.delete(KEY_PREFIX + sessionId);
+        } catch (Exception e) {
+            log.warn("删除共享会话窗口失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 本地未命中：先读 Redis，再回源数据库并回填 Redis
+     */
+    private Window loadWindow(String sessionId) {
+        String key = KEY_PREFIX + sessionId;
+        Window window = new Window(windowSize);
+        try {
+            List<String> cached = stringRedisTemplate.opsForList().range(key, 0, -1);
+            if (cached != null && !cached.isEmpty()) {
+                for (String json : cached) {
+                    window.add(objectMapper.readValue(json, ConversationTurn.class));
+                }
+                stringRedisTemplate.expire(key, idleTimeout);
+                return window;
+            }
+        } catch (Exception e) {
+            log.warn("读取共享会话窗口失败，回源数据库: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+
+        // 取最近的 windowSize 轮（倒序查询后反转为正序）
+        List<QaHistory> history = new ArrayList<>(qaHistoryMapper.selectList(
+                new LambdaQueryWrapper<QaHistory>()
+                        .select(QaHistory::getId, QaHistory::getQuestion, QaHistory::getAnswer)
+                        .eq(QaHistory::getSessionId, sessionId)
+                        .orderByDesc(QaHistory::getId)
+                        .last("LIMIT " + windowSize)
+        ));
+        Collections.reverse(history);
+        List<String> values = new ArrayList<>(history.size());
+        for (QaHistory h : history) {
+            ConversationTurn turn = new ConversationTurn(h.getQuestion(), h.getAnswer());
+            window.add(turn);
+            try {
+                values.add(objectMapper.writeValueAsString(turn));
+            } catch (Exception e) {
+                log.warn("序列化会话记录失败: sessionId={}, historyId={}", sessionId, h.getId());
+            }
+        }
+
+        if (!values.isEmpty()) {
+            try {
+                stringRedisTemplate.delete(key);
+                stringRedisTemplate.opsForList().rightPushAll(key, values);
+                stringRedisTemplate.expire(key, idleTimeout);
+            } catch (Exception e) {
+                log.warn("回填共享会话窗口失败: sessionId={}, error={}", sessionId, e.getMessage());
+            }
+        }
+        return window;
+    }
+
+    /**
+     * 固定容量的会话窗口（超出容量时丢弃最早的一轮）
+     */
+    private static class Window {
+
+        private final int capacity;
+        private final ArrayDeque<ConversationTurn> turns;
+
+        Window(int capacity) {
+            this.capacity = capacity;
+            this.turns = new ArrayDeque<>(capacity);
+        }
+
+        synchronized void add(ConversationTurn turn) {
+            if (turns.size() >= capacity) {
+                turns.pollFirst();
+            }
+            turns.addLast(turn);
+        }
+
+        synchronized List<ConversationTurn> snapshot() {
+            return List.copyOf(turns);
+        }
+    }
+}
@@ -3,9 +3,7 @@ package com.aimanager.qa.service;
 import com.aimanager.qa.entity.ExternalFunction;
 import com.aimanager.qa.entity.FunctionCallHistory;
 import com.aimanager.qa.mapper.ExternalFunctionMapper;
-import com.aimanager.qa.mapper.FunctionCallHistoryMapper;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.JsonPath;
 import lombok.RequiredArgsConstructor;
@@ -16,7 +14,6 @@ import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Function Call 服务
@@ -27,43 +24,17 @@ import java.util.stream.Collectors;
 public class FunctionCallService {
     
     private final ExternalFunctionMapper functionMapper;
-    private final FunctionCallHistoryMapper historyMapper;
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final ToolCatalogService toolCatalogService;
+    private final AuditWriter auditWriter;
+    private final ToolResultCache toolResultCache;
     
     /**
-     * 获取所有启用的函数定义（用于传递给大模型）
+     * 获取所有启用的函数定义（用于传递给大模型，取自工具目录快照）
      */
     public List<Map<String, Object>> getAvailableFunctions() {
-        List<ExternalFunction> functions = functionMapper.selectList(
-            new LambdaQueryWrapper<ExternalFunction>()
-                .eq(ExternalFunction::getStatus, 1)
-                .eq(ExternalFunction::getDeleted, 0)
-        );
-        
-        return functions.stream().map(this::convertToFunctionDefinition).collect(Collectors.toList());
-    }
-    
-    /**
-     * 将函数实体转换为大模型可识别的函数定义格式
-     */
-    private Map<String, Object> convertToFunctionDefinition(ExternalFunction function) {
-        Map<String, Object> definition = new HashMap<>();
-        definition.put("name", function.getFunctionName());
-        definition.put("description", function.getDescription());
-        
-        try {
-            // 解析参数 Schema
-            if (function.getParametersSchema() != null && !function.getParametersSchema().isEmpty()) {
-                JsonNode schemaNode = objectMapper.readTree(function.getParametersSchema());
-                definition.put("parameters", objectMapper.convertValue(schemaNode, Map.class));
-            }
-        } catch (Exception e) {
-            log.error("解析函数参数Schema失败: functionName={}, error={}", 
-                function.getFunctionName(), e.getMessage());
-        }
-        
-        return definition;
+        return toolCatalogService.getCatalog().getFunctions();
     }
     
     /**
@@ -92,7 +63,19 @@ public class FunctionCallService {
             log.error("函数不存在或未启用: {}", functionName);
             return createErrorResult("函数不存在或未启用");
         }
-        
+
+        // 配置了缓存有效期的函数先查结果缓存，失败结果不缓存
+        return toolResultCache.get(ToolResultCache.KIND_FUNCTION, function.getId(), function.getCacheTtlSeconds(),
+                arguments, () -> invokeFunction(function, arguments, sessionId, startTime), FunctionResult::success)
+                .result();
+    }
+
+    /**
+     * 调用外部API并记录调用历史
+     */
+    private FunctionResult invokeFunction(ExternalFunction function, String arguments, String sessionId,
+                                          long startTime) {
+        String functionName = function.getFunctionName();
         FunctionCallHistory history = new FunctionCallHistory();
         history.setSessionId(sessionId);
         history.setFunctionId(function.getId());
@@ -131,10 +114,10 @@ public class FunctionCallService {
             history.setOutputResult(result);
             history.setStatus("SUCCESS");
             history.setResponseTime(System.currentTimeMillis() - startTime);
-            historyMapper.insert(history);
+            auditWriter.submit(history);
             
             log.info("函数执行成功: functionName={}, result={}", functionName, result);
-            return result;
+            return new FunctionResult(result, true);
             
         } catch (Exception e) {
             log.error("函数执行失败: functionName={}, error={}", functionName, e.getMessage(), e);
@@ -143,11 +126,17 @@ public class FunctionCallService {
             history.setStatus("FAILED");
             history.setErrorMessage(e.getMessage());
             history.setResponseTime(System.currentTimeMillis() - startTime);
-            historyMapper.insert(history);
+            auditWriter.submit(history);
             
-            return createErrorResult(e.getMessage());
+            return new FunctionResult(createErrorResult(e.getMessage()), false);
         }
     }
+
+    /**
+     * 函数调用结果
+     */
+    private record FunctionResult(String result, boolean success) {
+    }
     
     /**
      * 解析参数
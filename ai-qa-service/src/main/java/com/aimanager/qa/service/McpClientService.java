@@ -5,7 +5,7 @@ import com.aimanager.qa.dto.McpToolCallResponse;
 import com.aimanager.qa.dto.McpToolVO;
 import com.aimanager.qa.entity.McpCallHistory;
 import com.aimanager.qa.entity.McpServer;
-import com.aimanager.qa.mapper.McpCallHistoryMapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -28,7 +28,9 @@ public class McpClientService {
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
-    private final McpCallHistoryMapper callHistoryMapper;
+    private final AuditWriter auditWriter;
+    private final ToolCatalogService toolCatalogService;
+    private final ToolResultCache toolResultCache;
 
     /**
      * 初始化MCP会话并获取可用工具列表
@@ -145,19 +147,36 @@ public class McpClientService {
      * 调用MCP工具
      */
     public McpToolCallResponse callTool(McpServer server, McpToolCallRequest request) {
+        // 缓存配置取自内存中的工具目录快照，未配置缓存的工具直接调用
+        ToolCatalogService.McpToolCache cache = toolCatalogService.getCatalog()
+                .getMcpToolCache(server.getId(), request.getToolName());
+        if (cache == null) {
+            return invokeTool(server, request);
+        }
+
+        // 配置了缓存有效期的工具先查结果缓存，失败结果不缓存
+        return toolResultCache.get(ToolResultCache.KIND_MCP, cache.toolId(), cache.ttlSeconds(),
+                request.getArguments(), () -> invokeTool(server, request),
+                response -> "SUCCESS".equals(response.getStatus()));
+    }
+
+    /**
+     * 通过JSON-RPC调用MCP工具并记录调用历史
+     */
+    private McpToolCallResponse invokeTool(McpServer server, McpToolCallRequest request) {
         long startTime = System.currentTimeMillis();
         
         log.info("调用MCP工具: serverCode={}, toolName={}", server.getServerCode(), request.getToolName());
 
         // 创建调用历史记录
         McpCallHistory history = new McpCallHistory();
+        history.setId(IdWorker.getId());  // 预先分配ID，历史异步写入前即可返回执行ID
         history.setSessionId(request.getSessionId());
         history.setServerId(server.getId());
         history.setServerCode(server.getServerCode());
         history.setToolName(request.getToolName());
         history.setUserId(request.getUserId());
         history.setStartTime(LocalDateTime.now());
-        history.setStatus("RUNNING");
         history.setCreateTime(LocalDateTime.now());
         
         try {
@@ -166,8 +185,6 @@ public class McpClientService {
             log.error("序列化输入数据失败", e);
         }
         
-        callHistoryMapper.insert(history);
-
         McpToolCallResponse response = new McpToolCallResponse();
         response.setExecutionId(history.getId());
         response.setServerCode(server.getServerCode());
@@ -299,7 +316,8 @@ public class McpClientService {
             history.setExecutionTime(executionTime);
             response.setExecutionTime(executionTime);
 
-            callHistoryMapper.updateById(history);
+            // 以最终状态异步写入调用历史
+            auditWriter.submit(history);
         }
 
         return response;
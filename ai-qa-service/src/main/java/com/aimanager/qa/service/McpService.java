@@ -30,6 +30,7 @@ public class McpService {
     private final McpToolMapper toolMapper;
     private final McpClientService mcpClientService;
     private final ObjectMapper objectMapper;
+    private final ToolCatalogService toolCatalogService;
 
     /**
      * 分页查询MCP Server
@@ -188,6 +189,7 @@ public class McpService {
         }
 
         serverMapper.updateById(server);
+        toolCatalogService.invalidate();
         log.info("更新MCP Server成功: id={}", id);
     }
 
@@ -199,6 +201,7 @@ public class McpService {
         serverMapper.deleteById(id);
         // 同时删除关联的工具
         toolMapper.delete(new LambdaQueryWrapper<McpTool>().eq(McpTool::getServerId, id));
+        toolCatalogService.invalidate();
         log.info("删除MCP Server成功: id={}", id);
     }
 
@@ -212,6 +215,7 @@ public class McpService {
         }
         server.setStatus(status);
         serverMapper.updateById(server);
+        toolCatalogService.invalidate();
     }
 
     /**
@@ -224,6 +228,20 @@ public class McpService {
         }
         tool.setEnabled(enabled);
         toolMapper.updateById(tool);
+        toolCatalogService.invalidate();
+    }
+
+    /**
+     * 设置MCP工具的结果缓存有效期（秒，0表示不缓存）
+     */
+    public void updateToolCacheTtl(Long toolId, Integer ttlSeconds) {
+        McpTool tool = toolMapper.selectById(toolId);
+        if (tool == null) {
+            throw new RuntimeException("MCP工具不存在");
+        }
+        tool.setCacheTtlSeconds(ttlSeconds);
+        toolMapper.updateById(tool);
+        toolCatalogService.invalidate();
     }
 
     /**
@@ -241,7 +259,14 @@ public class McpService {
         // 调用MCP客户端获取工具列表
         List<McpToolVO> tools = mcpClientService.listTools(server);
 
-        // 删除旧的工具记录
+        // 保留已有工具的缓存配置，再删除旧的工具记录
+        Map<String, Integer> cacheTtls = new HashMap<>();
+        toolMapper.selectList(new LambdaQueryWrapper<McpTool>().eq(McpTool::getServerId, serverId))
+                .forEach(tool -> {
+                    if (tool.getCacheTtlSeconds() != null) {
+                        cacheTtls.put(tool.getToolCode(), tool.getCacheTtlSeconds());
+                    }
+                });
         toolMapper.delete(new LambdaQueryWrapper<McpTool>().eq(McpTool::getServerId, serverId));
 
         // 保存新的工具记录
@@ -252,6 +277,7 @@ public class McpService {
             tool.setToolCode(toolVO.getToolCode());
             tool.setDescription(toolVO.getDescription());
             tool.setEnabled(1);
+            tool.setCacheTtlSeconds(cacheTtls.get(toolVO.getToolCode()));
 
             try {
                 if (toolVO.getInputSchema() != null) {
@@ -268,6 +294,7 @@ public class McpService {
         server.setHealthStatus(tools.isEmpty() ? "UNKNOWN" : "HEALTHY");
         server.setLastHealthCheck(LocalDateTime.now());
         serverMapper.updateById(server);
+        toolCatalogService.invalidate();
 
         log.info("发现MCP工具完成: serverId={}, 工具数量={}", serverId, tools.size());
         return tools;
@@ -290,43 +317,10 @@ public class McpService {
 
 
     /**
-     * 获取所有启用的MCP工具（用于AI调用）
+     * 获取所有启用的MCP工具（用于AI调用，取自工具目录快照）
      */
     public List<Map<String, Object>> getAvailableMcpTools() {
-        List<McpServer> servers = serverMapper.selectList(
-                new LambdaQueryWrapper<McpServer>()
-                        .eq(McpServer::getStatus, 1)
-                        .eq(McpServer::getDeleted, 0)
-        );
-
-        List<Map<String, Object>> allTools = new ArrayList<>();
-
-        for (McpServer server : servers) {
-            List<McpTool> tools = toolMapper.selectList(
-                    new LambdaQueryWrapper<McpTool>()
-                            .eq(McpTool::getServerId, server.getId())
-                            .eq(McpTool::getEnabled, 1)
-                            .eq(McpTool::getDeleted, 0)
-            );
-
-            for (McpTool tool : tools) {
-                Map<String, Object> toolDef = new HashMap<>();
-                toolDef.put("name", server.getServerCode() + "__" + tool.getToolCode());
-                toolDef.put("description", "[MCP:" + server.getServerName() + "] " + tool.getDescription());
-
-                try {
-                    if (tool.getInputSchema() != null) {
-                        toolDef.put("parameters", objectMapper.readValue(tool.getInputSchema(), Map.class));
-                    }
-                } catch (Exception e) {
-                    log.error("解析Schema失败", e);
-                }
-
-                allTools.add(toolDef);
-            }
-        }
-
-        return allTools;
+        return toolCatalogService.getCatalog().getMcpTools();
     }
 
     /**
@@ -10,20 +10,35 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.scheduler.Schedulers;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -38,11 +53,39 @@ public class QaService {
     private final FunctionCallService functionCallService;
     private final AgentService agentService;
     private final McpService mcpService;
+    private final ConversationWindowService conversationWindowService;
+    private final AuditWriter auditWriter;
+    private final AnswerCacheService answerCacheService;
+    private final ContextPacker contextPacker;
     private final RestTemplate restTemplate;
+    private final WebClient webClient;
+    @Qualifier("askPrepareExecutor")
+    private final ExecutorService askPrepareExecutor;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    // ai-model-service 的地址
-    private static final String MODEL_SERVICE_URL = "http://localhost:8084";
+    private static final String SYSTEM_PROMPT =
+            "You are a helpful AI assistant. Please answer questions based on the context provided.";
+
+    private static final String CONTEXT_INSTRUCTION = "\n\n请仔细阅读以上所有文档的内容，综合所有文档的信息来回答用户的问题。"
+            + "如果多个文档都包含相关信息，请整合所有文档的内容，给出全面的答案。"
+            + "如果文档中没有相关信息，请明确说明无法从提供的文档中找到答案。"
+            + "在回答时，如果引用了某个文档的内容，可以注明文档标题。";
+
+    /**
+     * 放入提示词的最大历史轮数
+     */
+    private static final int MAX_HISTORY_TURNS = 5;
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_EVENT_TYPE =
+            new ParameterizedTypeReference<>() {};
+
+    /**
+     * 模型服务流式响应中携带 tool_calls 增量的事件名
+     */
+    private static final String TOOL_CALLS_EVENT = "tool_calls";
+
+    @Value("${model.service.url}")
+    private String modelServiceUrl;
 
     @Value("${vector.service.url}")
     private String vectorServiceUrl;
@@ -56,9 +99,17 @@ public class QaService {
     @Value("${function.call.max.iterations:3}")
     private int maxFunctionCallIterations;
 
-    public static void main(){
+    @Value("${function.call.timeout-ms:30000}")
+    private long toolCallTimeoutMs;
 
-    }
+    @Value("${qa.prepare.history-timeout-ms:2000}")
+    private long historyTimeoutMs;
+
+    @Value("${qa.prepare.retrieval-timeout-ms:15000}")
+    private long retrievalTimeoutMs;
+
+    @Value("${qa.prepare.tools-timeout-ms:3000}")
+    private long toolsTimeoutMs;
 
     /**
      * 处理问答请求（非流式）
@@ -76,44 +127,24 @@ public class QaService {
         }
 
         try {
-            // 获取会话历史（用于上下文）
-            List<QaHistory> history = getHistoryBySessionId(sessionId);
-
-            // 检索相关文档（RAG）- 使用分块检索获取更精确的内容
-            String documentContext = searchAndGetChunkContext(request.getQuestion());
-            // 如果分块检索失败，回退到文档级检索
-            if (documentContext.isEmpty()) {
-                List<Long> relatedDocIds = searchRelatedDocuments(request.getQuestion());
-                documentContext = getDocumentContext(relatedDocIds);
+            List<ConversationTurn> history = loadHistory(sessionId);
+            AnswerCacheService.Lookup cacheLookup = lookupAnswerCache(request, history);
+            if (cacheLookup != null && cacheLookup.isHit()) {
+                return cachedResponse(request, sessionId, cacheLookup, startTime);
             }
 
+            // 并发准备会话历史、文档上下文和可用工具
+            PreparedAsk prepared = prepareAsk(request, history);
+            String documentContext = prepared.documentContext();
+
             // 构建消息列表（包含文档上下文）
-            List<ChatMessage> messages = buildMessages(request.getQuestion(), history, documentContext);
+            List<ChatMessage> messages = buildMessages(request.getQuestion(), prepared.history(), documentContext);
 
-            // 获取可用的函数和Agent列表
-            List<java.util.Map<String, Object>> functions = new ArrayList<>();
+            List<java.util.Map<String, Object>> functions = prepared.functions();
             List<String> calledFunctions = new ArrayList<>();
             List<String> calledAgents = new ArrayList<>();
             List<String> calledMcpTools = new ArrayList<>();
 
-            if (request.getEnableFunctionCall() != null && request.getEnableFunctionCall()) {
-                List<java.util.Map<String, Object>> availableFunctions = functionCallService.getAvailableFunctions();
-                functions.addAll(availableFunctions);
-                log.info("启用 Function Call，可用函数数量: {}", availableFunctions.size());
-            }
-
-            if (request.getEnableAgent() != null && request.getEnableAgent()) {
-                List<java.util.Map<String, Object>> availableAgents = agentService.getAvailableAgents();
-                functions.addAll(availableAgents);
-                log.info("启用 Agent调用，可用Agent数量: {}", availableAgents.size());
-            }
-
-            if (request.getEnableMcp() != null && request.getEnableMcp()) {
-                List<java.util.Map<String, Object>> availableMcpTools = mcpService.getAvailableMcpTools();
-                functions.addAll(availableMcpTools);
-                log.info("启用 MCP工具调用，可用MCP工具数量: {}", availableMcpTools.size());
-            }
-
             // 调用模型服务（可能需要多次迭代处理 Function Call）
             ModelChatResponse chatResponse = callModelWithFunctionCall(
                 request.getModelId(),
@@ -147,7 +178,11 @@ public class QaService {
             qaHistory.setModelName(chatResponse.getModel());
             qaHistory.setResponseTime(chatResponse.getResponseTime());
             qaHistory.setTotalTokens(chatResponse.getTotalTokens());
-            qaHistoryMapper.insert(qaHistory);
+            qaHistory.setCreateTime(LocalDateTime.now());
+            auditWriter.submit(qaHistory);
+            conversationWindowService.append(sessionId, request.getQuestion(), chatResponse.getContent());
+            cacheAnswer(cacheLookup, chatResponse.getContent(), documentContext.isEmpty() ? 0.5 : 1.0,
+                    calledFunctions, calledAgents, calledMcpTools);
 
             // 构建响应
             QaResponse qaResponse = new QaResponse();
@@ -173,6 +208,9 @@ public class QaService {
 
     /**
      * 处理问答请求（流式）
+     * 检索在虚拟线程上完成，随后每一轮都通过 WebClient 订阅模型服务的 SSE 流，内容片段即时转发给客户端；
+     * 某一轮出现 tool_calls 增量时，该轮结束后执行工具并以工具结果开始下一轮（最多 maxFunctionCallIterations 轮）。
+     * 转发在 boundedElastic 线程上进行，客户端写出阻塞不会占用 Netty 事件循环；客户端断开、超时或出错时取消订阅，中止上游调用。
      */
     public SseEmitter askStream(QaRequest request) {
         SseEmitter emitter = new SseEmitter(300000L);
@@ -182,120 +220,296 @@ public class QaService {
         if (sessionId == null || sessionId.isEmpty()) {
             sessionId = UUID.randomUUID().toString();
         }
-        final String finalSessionId = sessionId;
-
-        // 异步处理
-        new Thread(() -> {
-            StringBuilder fullAnswer = new StringBuilder();
-            long startTime = System.currentTimeMillis();
+        StreamingAsk ask = new StreamingAsk(emitter, request, sessionId);
+        emitter.onCompletion(ask::cancel);
+        emitter.onTimeout(ask::cancel);
+        emitter.onError(e -> ask.cancel());
 
+        askPrepareExecutor.execute(() -> {
             try {
                 // 发送会话ID
-                emitter.send(SseEmitter.event().name("session").data(finalSessionId));
-
-                // 获取会话历史
-                List<QaHistory> history = getHistoryBySessionId(finalSessionId);
+                emitter.send(SseEmitter.event().name("session").data(ask.sessionId));
+
+                List<ConversationTurn> history = loadHistory(ask.sessionId);
+                ask.cacheLookup = lookupAnswerCache(request, history);
+                if (ask.cacheLookup != null && ask.cacheLookup.isHit()) {
+                    emitter.send(SseEmitter.event().name("message").data(ask.cacheLookup.answer()));
+                    finishStream(emitter, request, ask.sessionId, ask.cacheLookup.answer(), ask.startTime,
+                            ask.calledFunctions, ask.calledAgents, ask.calledMcpTools);
+                    return;
+                }
 
-                // 检索相关文档（RAG）
-                List<Long> relatedDocIds = searchRelatedDocuments(request.getQuestion());
-                String documentContext = getDocumentContext(relatedDocIds);
+                // 并发准备会话历史、文档上下文和可用工具
+                PreparedAsk prepared = prepareAsk(request, history);
+                ask.confidence = prepared.documentContext().isEmpty() ? 0.5 : 1.0;
+                ask.functions = prepared.functions();
 
                 // 构建消息列表（包含文档上下文）
-                List<ChatMessage> messages = buildMessages(request.getQuestion(), history, documentContext);
-
-                // 获取可用的函数和Agent列表
-                List<java.util.Map<String, Object>> functions = new ArrayList<>();
-                List<String> calledFunctions = new ArrayList<>();
-                List<String> calledAgents = new ArrayList<>();
-                List<String> calledMcpTools = new ArrayList<>();
-
-                if (request.getEnableFunctionCall() != null && request.getEnableFunctionCall()) {
-                    List<java.util.Map<String, Object>> availableFunctions = functionCallService.getAvailableFunctions();
-                    functions.addAll(availableFunctions);
-                    log.info("流式接口启用 Function Call，可用函数数量: {}", availableFunctions.size());
-                }
-
-                if (request.getEnableAgent() != null && request.getEnableAgent()) {
-                    List<java.util.Map<String, Object>> availableAgents = agentService.getAvailableAgents();
-                    functions.addAll(availableAgents);
-                    log.info("流式接口启用 Agent调用，可用Agent数量: {}", availableAgents.size());
-                }
+                ask.messages.addAll(buildMessages(request.getQuestion(), prepared.history(), prepared.documentContext()));
+                streamRound(ask, 1);
+            } catch (Exception e) {
+                log.error("流式问答失败: {}", e.getMessage(), e);
+                emitter.completeWithError(e);
+            }
+        });
 
-                if (request.getEnableMcp() != null && request.getEnableMcp()) {
-                    List<java.util.Map<String, Object>> availableMcpTools = mcpService.getAvailableMcpTools();
-                    functions.addAll(availableMcpTools);
-                    log.info("流式接口启用 MCP工具调用，可用MCP工具数量: {}", availableMcpTools.size());
-                }
+        return emitter;
+    }
 
-                // 构建请求
-                ModelChatRequest chatRequest = new ModelChatRequest();
-                chatRequest.setModelId(request.getModelId());
-                chatRequest.setMessages(messages);
-                chatRequest.setStream(true);
-                chatRequest.setFunctions(functions.isEmpty() ? null : functions);
-
-                // 调用流式接口
-                URL url = new URL(MODEL_SERVICE_URL + "/model/invoke/chat/stream");
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setDoOutput(true);
-
-                // 发送请求
-                String requestJson = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(chatRequest);
-                connection.getOutputStream().write(requestJson.getBytes(StandardCharsets.UTF_8));
-
-                // 读取流式响应
-                BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)
-                );
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.startsWith("data: ")) {
-                        String data = line.substring(6);
-                        if ("[DONE]".equals(data)) {
-                            emitter.send(SseEmitter.event().name("done").data("[DONE]"));
-                            break;
+    /**
+     * 流式调用模型一轮：内容片段即时转发；本轮请求了工具时执行工具后进入下一轮，否则结束回答
+     */
+    private void streamRound(StreamingAsk ask, int iteration) {
+        if (ask.cancelled.get()) {
+            return;
+        }
+        ModelChatRequest chatRequest = new ModelChatRequest();
+        chatRequest.setModelId(ask.request.getModelId());
+        chatRequest.setMessages(ask.messages);
+        chatRequest.setStream(true);
+        chatRequest.setTools(toolDefinitions(ask.functions));
+
+        StringBuilder roundContent = new StringBuilder();
+        ToolCallAccumulator toolCalls = new ToolCallAccumulator();
+        Disposable disposable = webClient.post()
+                .uri(modelServiceUrl + "/model/invoke/chat/stream")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(chatRequest)
+                .retrieve()
+                .bodyToFlux(SSE_EVENT_TYPE)
+                .takeWhile(event -> !"done".equals(event.event()) && !"[DONE]".equals(event.data()))
+                .filter(event -> event.data() != null)
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(event -> {
+                    if (TOOL_CALLS_EVENT.equals(event.event())) {
+                        toolCalls.add(event.data());
+                        return;
+                    }
+                    roundContent.append(event.data());
+                    ask.fullAnswer.append(event.data());
+                    try {
+                        ask.emitter.send(SseEmitter.event().name("message").data(event.data()));
+                    } catch (IOException e) {
+                        throw Exceptions.propagate(e);
+                    }
+                }, error -> {
+                    log.error("流式问答失败: sessionId={}, error={}", ask.sessionId, error.getMessage());
+                    ask.emitter.completeWithError(error);
+                }, () -> askPrepareExecutor.execute(() -> {
+                    try {
+                        if (toolCalls.isEmpty()) {
+                            String answer = ask.fullAnswer.toString();
+                            cacheAnswer(ask.cacheLookup, answer, ask.confidence,
+                                    ask.calledFunctions, ask.calledAgents, ask.calledMcpTools);
+                            finishStream(ask.emitter, ask.request, ask.sessionId, answer, ask.startTime,
+                                    ask.calledFunctions, ask.calledAgents, ask.calledMcpTools);
+                            return;
+                        }
+                        if (iteration >= maxFunctionCallIterations) {
+                            log.warn("达到最大 Function Call 迭代次数: {}", maxFunctionCallIterations);
+                            ask.emitter.completeWithError(new RuntimeException("Function Call 迭代次数超限"));
+                            return;
                         }
-                        fullAnswer.append(data);
-                        emitter.send(SseEmitter.event().name("message").data(data));
+                        ModelChatResponse round = new ModelChatResponse();
+                        round.setContent(roundContent.toString());
+                        round.setToolCalls(toolCalls.toToolCalls());
+                        executeToolCalls(round, ask.messages, ask.sessionId,
+                                ask.calledFunctions, ask.calledAgents, ask.calledMcpTools);
+                        streamRound(ask, iteration + 1);
+                    } catch (Exception e) {
+                        log.error("流式问答失败: {}", e.getMessage(), e);
+                        ask.emitter.completeWithError(e);
                     }
-                }
+                }));
+        ask.upstream.set(disposable);
+        if (ask.cancelled.get()) {
+            disposable.dispose();
+        }
+    }
 
-                reader.close();
+    /**
+     * 一次流式问答的状态（跨多轮模型调用共享）
+     */
+    private static class StreamingAsk {
+
+        private final SseEmitter emitter;
+        private final QaRequest request;
+        private final String sessionId;
+        private final long startTime = System.currentTimeMillis();
+        private final List<ChatMessage> messages = new ArrayList<>();
+        private final StringBuilder fullAnswer = new StringBuilder();
+        private final List<String> calledFunctions = new ArrayList<>();
+        private final List<String> calledAgents = new ArrayList<>();
+        private final List<String> calledMcpTools = new ArrayList<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicReference<Disposable> upstream = new AtomicReference<>();
+        private List<java.util.Map<String, Object>> functions = List.of();
+        private AnswerCacheService.Lookup cacheLookup;
+        private Double confidence;
+
+        StreamingAsk(SseEmitter emitter, QaRequest request, String sessionId) {
+            this.emitter = emitter;
+            this.request = request;
+            this.sessionId = sessionId;
+        }
 
-                // 保存问答历史
-                QaHistory qaHistory = new QaHistory();
-                qaHistory.setSessionId(finalSessionId);
-                qaHistory.setQuestion(request.getQuestion());
-                qaHistory.setAnswer(fullAnswer.toString());
-                qaHistory.setModelId(request.getModelId());
-                qaHistory.setResponseTime(System.currentTimeMillis() - startTime);
-                qaHistoryMapper.insert(qaHistory);
+        /**
+         * 客户端断开、超时或出错：取消当前轮的上游订阅，后续轮次不再发起
+         */
+        void cancel() {
+            cancelled.set(true);
+            Disposable disposable = upstream.get();
+            if (disposable != null) {
+                disposable.dispose();
+            }
+        }
+    }
 
-                // 发送调用的Agent、Function和MCP工具信息
-                if (!calledAgents.isEmpty()) {
-                    emitter.send(SseEmitter.event().name("agents").data(objectMapper.writeValueAsString(calledAgents)));
-                }
-                if (!calledFunctions.isEmpty()) {
-                    emitter.send(SseEmitter.event().name("functions").data(objectMapper.writeValueAsString(calledFunctions)));
+    /**
+     * 按 index 累积流式响应中的 tool_calls 增量（id、名称只出现一次，参数分多段到达）
+     */
+    private class ToolCallAccumulator {
+
+        private final java.util.Map<Integer, ModelChatResponse.ToolCall> calls = new java.util.TreeMap<>();
+
+        void add(String data) {
+            try {
+                for (JsonNode delta : objectMapper.readTree(data)) {
+                    ModelChatResponse.ToolCall call = calls.computeIfAbsent(delta.path("index").asInt(calls.size()),
+                            index -> {
+                                ModelChatResponse.ToolCall created = new ModelChatResponse.ToolCall();
+                                created.setType("function");
+                                created.setFunction(new ModelChatResponse.FunctionCall());
+                                created.getFunction().setArguments("");
+                                return created;
+                            });
+                    if (delta.hasNonNull("id")) {
+                        call.setId(delta.get("id").asText());
+                    }
+                    JsonNode function = delta.path("function");
+                    if (function.hasNonNull("name")) {
+                        call.getFunction().setName(function.get("name").asText());
+                    }
+                    if (function.hasNonNull("arguments")) {
+                        call.getFunction().setArguments(call.getFunction().getArguments() + function.get("arguments").asText());
+                    }
                 }
-                if (!calledMcpTools.isEmpty()) {
-                    emitter.send(SseEmitter.event().name("mcpTools").data(objectMapper.writeValueAsString(calledMcpTools)));
+            } catch (IOException e) {
+                log.warn("解析工具调用增量失败: {}", e.getMessage());
+            }
+        }
+
+        boolean isEmpty() {
+            return calls.isEmpty();
+        }
+
+        List<ModelChatResponse.ToolCall> toToolCalls() {
+            List<ModelChatResponse.ToolCall> toolCalls = new ArrayList<>(calls.values());
+            for (ModelChatResponse.ToolCall toolCall : toolCalls) {
+                if (toolCall.getId() == null) {
+                    toolCall.setId("call_" + UUID.randomUUID().toString().replace("-", ""));
                 }
+            }
+            return toolCalls;
+        }
+    }
 
-                emitter.send(SseEmitter.event().name("done").data(""));
-                emitter.complete();
-                log.info("流式问答完成: sessionId={}", finalSessionId);
+    /**
+     * 加载会话最近几轮对话，答案缓存判断与问答准备共用这一次加载；超时或失败时返回 null
+     */
+    private List<ConversationTurn> loadHistory(String sessionId) {
+        return branch("会话历史", () -> conversationWindowService.getRecentTurns(sessionId),
+                historyTimeoutMs, null).join();
+    }
 
-            } catch (Exception e) {
-                log.error("流式问答失败: {}", e.getMessage(), e);
-                emitter.completeWithError(e);
+    /**
+     * 查询答案缓存；追问依赖会话上下文，只有会话的第一个问题走缓存
+     * （历史加载失败时无法判断是否首轮，也不走缓存；不走缓存时返回 null）
+     */
+    private AnswerCacheService.Lookup lookupAnswerCache(QaRequest request, List<ConversationTurn> history) {
+        if (history == null || !history.isEmpty()) {
+            return null;
+        }
+        return answerCacheService.lookup(request);
+    }
+
+    /**
+     * 缓存新生成的答案；模型请求过工具的答案依赖实时结果（或围绕调用失败的提示生成），无论调用成功与否都不缓存
+     */
+    private void cacheAnswer(AnswerCacheService.Lookup cacheLookup, String answer, Double confidence,
+                             List<String> calledFunctions, List<String> calledAgents, List<String> calledMcpTools) {
+        if (calledFunctions.isEmpty() && calledAgents.isEmpty() && calledMcpTools.isEmpty()) {
+            answerCacheService.put(cacheLookup, answer, confidence);
+        }
+    }
+
+    /**
+     * 以缓存的答案响应（不检索、不调用模型，仍记录问答历史）
+     */
+    private QaResponse cachedResponse(QaRequest request, String sessionId, AnswerCacheService.Lookup cacheLookup,
+                                      long startTime) {
+        long responseTime = System.currentTimeMillis() - startTime;
+
+        QaHistory qaHistory = new QaHistory();
+        qaHistory.setSessionId(sessionId);
+        qaHistory.setQuestion(request.getQuestion());
+        qaHistory.setAnswer(cacheLookup.answer());
+        qaHistory.setModelId(request.getModelId());
+        qaHistory.setResponseTime(responseTime);
+        qaHistory.setTotalTokens(0);
+        qaHistory.setCreateTime(LocalDateTime.now());
+        auditWriter.submit(qaHistory);
+        conversationWindowService.append(sessionId, request.getQuestion(), cacheLookup.answer());
+
+        QaResponse qaResponse = new QaResponse();
+        qaResponse.setAnswer(cacheLookup.answer());
+        qaResponse.setSessionId(sessionId);
+        qaResponse.setRelatedDocuments(List.of());
+        qaResponse.setConfidence(cacheLookup.confidence());
+        qaResponse.setResponseTime(responseTime);
+        qaResponse.setCalledFunctions(List.of());
+        qaResponse.setCalledAgents(List.of());
+        qaResponse.setCalledMcpTools(List.of());
+
+        log.info("问答命中答案缓存: sessionId={}, responseTime={}ms", sessionId, responseTime);
+        return qaResponse;
+    }
+
+    /**
+     * 流式回答结束：保存问答历史，发送调用的工具信息并结束 SSE
+     */
+    private void finishStream(SseEmitter emitter, QaRequest request, String sessionId, String answer, long startTime,
+                              List<String> calledFunctions, List<String> calledAgents, List<String> calledMcpTools) {
+        try {
+            // 保存问答历史
+            QaHistory qaHistory = new QaHistory();
+            qaHistory.setSessionId(sessionId);
+            qaHistory.setQuestion(request.getQuestion());
+            qaHistory.setAnswer(answer);
+            qaHistory.setModelId(request.getModelId());
+            qaHistory.setResponseTime(System.currentTimeMillis() - startTime);
+            qaHistory.setCreateTime(LocalDateTime.now());
+            auditWriter.submit(qaHistory);
+            conversationWindowService.append(sessionId, request.getQuestion(), answer);
+
+            // 发送调用的Agent、Function和MCP工具信息
+            if (!calledAgents.isEmpty()) {
+                emitter.send(SseEmitter.event().name("agents").data(objectMapper.writeValueAsString(calledAgents)));
+            }
+            if (!calledFunctions.isEmpty()) {
+                emitter.send(SseEmitter.event().name("functions").data(objectMapper.writeValueAsString(calledFunctions)));
+            }
+            if (!calledMcpTools.isEmpty()) {
+                emitter.send(SseEmitter.event().name("mcpTools").data(objectMapper.writeValueAsString(calledMcpTools)));
             }
-        }).start();
 
-        return emitter;
+            emitter.send(SseEmitter.event().name("done").data(""));
+            emitter.complete();
+            log.info("流式问答完成: sessionId={}", sessionId);
+        } catch (Exception e) {
+            log.error("流式问答失败: {}", e.getMessage(), e);
+            emitter.completeWithError(e);
+        }
     }
 
     /**
@@ -341,57 +555,138 @@ public class QaService {
         qaHistoryMapper.delete(
                 new LambdaQueryWrapper<QaHistory>().eq(QaHistory::getSessionId, sessionId)
         );
+        conversationWindowService.evict(sessionId);
         log.info("删除会话历史: sessionId={}", sessionId);
     }
 
     /**
-     * 获取会话历史（内部使用）
+     * 问答准备阶段：分块检索、文档级回退检索以及函数/Agent/MCP工具列表
+     * 在虚拟线程上并发执行，各分支超时或失败时使用空结果，不阻塞模型调用（会话历史由调用方预先加载）。
+     * 文档级回退的向量检索与分块检索同时启动（只是一次检索请求）；整篇文档只在分块检索完成且没有结果后才拉取。
+     * 检索结果按模型估算的 token 预算装箱（扣除回答预留、历史对话和当前问题）后作为参考文档内容。
      */
-    private List<QaHistory> getHistoryBySessionId(String sessionId) {
-        return qaHistoryMapper.selectList(
-                new LambdaQueryWrapper<QaHistory>()
-                        .eq(QaHistory::getSessionId, sessionId)
-                        .orderByAsc(QaHistory::getCreateTime)
-                        .last("LIMIT 10") // 只取最近10条
-        );
+    private PreparedAsk prepareAsk(QaRequest request, List<ConversationTurn> loadedHistory) {
+        long startTime = System.currentTimeMillis();
+        String question = request.getQuestion();
+        List<ConversationTurn> history = loadedHistory != null ? loadedHistory : List.of();
+
+        CompletableFuture<List<ContextPacker.Piece>> chunkFuture = branch("分块检索",
+                () -> searchChunks(question), retrievalTimeoutMs, List.of());
+        CompletableFuture<List<Long>> relatedDocsFuture = branch("文档检索",
+                () -> searchRelatedDocuments(question), retrievalTimeoutMs, List.of());
+        CompletableFuture<List<ContextPacker.Piece>> fallbackFuture = chunkFuture.thenCompose(chunks -> chunks.isEmpty()
+                ? relatedDocsFuture.thenCompose(docIds -> branch("文档内容",
+                        () -> getDocumentPieces(docIds), retrievalTimeoutMs, List.of()))
+                : CompletableFuture.completedFuture(List.of()));
+        ContextPacker.ModelBudget defaultBudget = contextPacker.budgetOf(null);
+        CompletableFuture<ContextPacker.ModelBudget> budgetFuture = branch("模型信息",
+                () -> contextPacker.budgetOf(request.getModelId()), toolsTimeoutMs, defaultBudget);
+
+        CompletableFuture<List<java.util.Map<String, Object>>> functionsFuture =
+                Boolean.TRUE.equals(request.getEnableFunctionCall())
+                        ? branch("函数列表", functionCallService::getAvailableFunctions, toolsTimeoutMs, List.of())
+                        : CompletableFuture.completedFuture(List.of());
+        CompletableFuture<List<java.util.Map<String, Object>>> agentsFuture =
+                Boolean.TRUE.equals(request.getEnableAgent())
+                        ? branch("Agent列表", agentService::getAvailableAgents, toolsTimeoutMs, List.of())
+                        : CompletableFuture.completedFuture(List.of());
+        CompletableFuture<List<java.util.Map<String, Object>>> mcpToolsFuture =
+                Boolean.TRUE.equals(request.getEnableMcp())
+                        ? branch("MCP工具列表", mcpService::getAvailableMcpTools, toolsTimeoutMs, List.of())
+                        : CompletableFuture.completedFuture(List.of());
+
+        // 分块检索失败时回退到文档级检索
+        List<ContextPacker.Piece> pieces = chunkFuture.join();
+        if (pieces.isEmpty()) {
+            pieces = fallbackFuture.join();
+        }
+        List<String> promptOverhead = new ArrayList<>();
+        promptOverhead.add(SYSTEM_PROMPT + CONTEXT_INSTRUCTION);
+        for (ConversationTurn turn : recentTurns(history)) {
+            promptOverhead.add(turn.getQuestion());
+            promptOverhead.add(turn.getAnswer());
+        }
+        promptOverhead.add(question);
+        String documentContext = contextPacker.pack(pieces, budgetFuture.join(), promptOverhead);
+
+        List<java.util.Map<String, Object>> functions = new ArrayList<>();
+        functions.addAll(functionsFuture.join());
+        functions.addAll(agentsFuture.join());
+        functions.addAll(mcpToolsFuture.join());
+
+        log.info("问答准备完成: 文档上下文长度={}, 可用函数{}个, Agent{}个, MCP工具{}个, 耗时={}ms",
+                documentContext.length(), functionsFuture.join().size(), agentsFuture.join().size(),
+                mcpToolsFuture.join().size(), System.currentTimeMillis() - startTime);
+        return new PreparedAsk(history, documentContext, functions);
+    }
+
+    /**
+     * 在准备阶段执行器上启动一个分支，超时或异常时返回默认值
+     */
+    private <T> CompletableFuture<T> branch(String name, Supplier<T> supplier, long timeoutMs, T defaultValue) {
+        return CompletableFuture.supplyAsync(supplier, askPrepareExecutor)
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof TimeoutException) {
+                        log.warn("问答准备分支超时，使用空结果: branch={}, timeout={}ms", name, timeoutMs);
+                    } else {
+                        log.warn("问答准备分支失败，使用空结果: branch={}, error={}", name, cause.getMessage());
+                    }
+                    return defaultValue;
+                });
+    }
+
+    /**
+     * 问答准备阶段的结果
+     */
+    private record PreparedAsk(List<ConversationTurn> history, String documentContext,
+                               List<java.util.Map<String, Object>> functions) {
     }
 
     /**
      * 构建消息列表（包含历史上下文和文档上下文）
      */
-    private List<ChatMessage> buildMessages(String question, List<QaHistory> history, String documentContext) {
+    private List<ChatMessage> buildMessages(String question, List<ConversationTurn> history, String documentContext) {
         List<ChatMessage> messages = new ArrayList<>();
 
         // 系统提示词（包含文档上下文）
-        String systemPrompt = "You are a helpful AI assistant. Please answer questions based on the context provided.";
+        String systemPrompt = SYSTEM_PROMPT;
         if (documentContext != null && !documentContext.isEmpty()) {
-            systemPrompt += "\n\n参考文档内容：\n" + documentContext;
-            systemPrompt += "\n\n请仔细阅读以上所有文档的内容，综合所有文档的信息来回答用户的问题。";
-            systemPrompt += "如果多个文档都包含相关信息，请整合所有文档的内容，给出全面的答案。";
-            systemPrompt += "如果文档中没有相关信息，请明确说明无法从提供的文档中找到答案。";
-            systemPrompt += "在回答时，如果引用了某个文档的内容，可以注明文档标题。";
+            systemPrompt += "\n\n参考文档内容：\n" + documentContext + CONTEXT_INSTRUCTION;
         }
         messages.add(new ChatMessage("user", systemPrompt));
 
-        // 添加历史对话（最多5轮，且必须有完整的问答对）
-        int historyCount = Math.min(history.size(), 5);
-        for (int i = history.size() - historyCount; i < history.size(); i++) {
-            QaHistory h = history.get(i);
-            // 只添加有完整答案的历史记录
-            if (h.getQuestion() != null && h.getAnswer() != null && !h.getAnswer().isEmpty()) {
-                messages.add(new ChatMessage("user", h.getQuestion()));
-                messages.add(new ChatMessage("assistant", h.getAnswer()));
-            }
+        // 添加历史对话
+        List<ConversationTurn> turns = recentTurns(history);
+        for (ConversationTurn h : turns) {
+            messages.add(new ChatMessage("user", h.getQuestion()));
+            messages.add(new ChatMessage("assistant", h.getAnswer()));
         }
 
         // 当前问题
         messages.add(new ChatMessage("user", question));
 
         log.info("构建消息列表: 历史记录{}条, 文档上下文长度={}, 总消息{}条",
-                historyCount, documentContext != null ? documentContext.length() : 0, messages.size());
+                turns.size(), documentContext != null ? documentContext.length() : 0, messages.size());
         return messages;
     }
 
+    /**
+     * 放入提示词的历史对话：最近5轮中有完整问答对的记录
+     */
+    private List<ConversationTurn> recentTurns(List<ConversationTurn> history) {
+        List<ConversationTurn> turns = new ArrayList<>();
+        for (int i = Math.max(0, history.size() - MAX_HISTORY_TURNS); i < history.size(); i++) {
+            ConversationTurn h = history.get(i);
+            // 只添加有完整答案的历史记录
+            if (h.getQuestion() != null && h.getAnswer() != null && !h.getAnswer().isEmpty()) {
+                turns.add(h);
+            }
+        }
+        return turns;
+    }
+
     /**
      * 搜索相关文档（向量检索）- 返回文档ID列表（向后兼容）
      */
@@ -432,21 +727,22 @@ public class QaService {
     }
 
     /**
-     * 获取文档内容（基于分块检索，返回最相关的分块内容）
+     * 获取文档内容（文档级回退检索，按检索顺序给出得分，长度由装箱预算控制）
      */
-    private String getDocumentContext(List<Long> documentIds) {
+    private List<ContextPacker.Piece> getDocumentPieces(List<Long> documentIds) {
         // 由于调用方式不变，但我们现在改用分块检索
         // 这里需要重新实现
         if (documentIds == null || documentIds.isEmpty()) {
             log.info("文档ID列表为空，跳过获取文档上下文");
-            return "";
+            return List.of();
         }
 
         log.info("开始获取文档上下文: 文档ID列表={}", documentIds);
-        StringBuilder context = new StringBuilder();
-        int successCount = 0;
+        List<ContextPacker.Piece> pieces = new ArrayList<>();
+        int rank = 0;
 
         for (Long docId : documentIds) {
+            rank++;
             try {
                 String url = knowledgeServiceUrl + "/document/" + docId;
                 log.debug("请求文档内容: docId={}, url={}", docId, url);
@@ -463,19 +759,10 @@ public class QaService {
                         String content = dataNode.path("content").asText("");
 
                         if (!content.isEmpty()) {
-                            context.append("\n\n【文档：").append(title).append("】\n");
-                            // 限制每个文档的内容长度，避免超过模型上下文限制
-                            int contentLength = content.length();
-                            if (contentLength > 4000) {
-                                context.append(content, 0, 4000).append("...");
-                                log.info("  添加文档: docId={}, 标题={}, 内容长度={} (截断到4000)",
-                                    docId, title, contentLength);
-                            } else {
-                                context.append(content);
-                                log.info("  添加文档: docId={}, 标题={}, 内容长度={}",
-                                    docId, title, contentLength);
-                            }
-                            successCount++;
+                            // 检索结果按相关度排序，排名越靠前得分越高
+                            pieces.add(new ContextPacker.Piece(docId, title, -1, content,
+                                    documentIds.size() - rank + 1));
+                            log.info("  添加文档: docId={}, 标题={}, 内容长度={}", docId, title, content.length());
                         } else {
                             log.warn("  文档内容为空: docId={}, 标题={}", docId, title);
                         }
@@ -490,15 +777,14 @@ public class QaService {
             }
         }
 
-        log.info("获取文档上下文完成: 请求{}个文档, 成功{}个, 总长度={}",
-            documentIds.size(), successCount, context.length());
-        return context.toString();
+        log.info("获取文档上下文完成: 请求{}个文档, 成功{}个", documentIds.size(), pieces.size());
+        return pieces;
     }
 
     /**
-     * 基于分块的向量检索（新方法，返回更精确的相关内容）
+     * 基于分块的向量检索（新方法，返回更精确的相关内容及其检索得分）
      */
-    private String searchAndGetChunkContext(String queryText) {
+    private List<ContextPacker.Piece> searchChunks(String queryText) {
         try {
             log.info("===== 开始分块向量检索 =====");
             log.info("查询文本: {}", queryText);
@@ -514,7 +800,7 @@ public class QaService {
 
             if (searchResponse.getStatusCode() != HttpStatus.OK) {
                 log.warn("分块向量检索失败: status={}", searchResponse.getStatusCode());
-                return "";
+                return List.of();
             }
 
             log.debug("分块检索响应体: {}", searchResponse.getBody());
@@ -524,7 +810,7 @@ public class QaService {
 
             if (responseCode != 200) {
                 log.warn("分块向量检索返回错误: code={}, message={}", responseCode, searchJson.path("message").asText());
-                return "";
+                return List.of();
             }
 
             JsonNode chunksData = searchJson.path("data");
@@ -532,7 +818,7 @@ public class QaService {
 
             if (!chunksData.isArray() || chunksData.isEmpty()) {
                 log.info("分块向量检索未找到结果");
-                return "";
+                return List.of();
             }
 
             // 2. 批量获取分块内容
@@ -562,48 +848,49 @@ public class QaService {
 
             if (chunksResponse.getStatusCode() != HttpStatus.OK) {
                 log.warn("获取分块内容失败: status={}", chunksResponse.getStatusCode());
-                return "";
+                return List.of();
             }
 
             JsonNode chunksJson = objectMapper.readTree(chunksResponse.getBody());
             if (chunksJson.path("code").asInt() != 200) {
                 log.warn("获取分块内容返回错误: {}", chunksJson.path("message").asText());
-                return "";
+                return List.of();
             }
 
-            // 3. 组装上下文
+            // 3. 收集分块（去重、合并与截断由装箱统一处理）
             JsonNode chunksArray = chunksJson.path("data");
-            StringBuilder context = new StringBuilder();
-            String lastDocTitle = "";
+            List<ContextPacker.Piece> pieces = new ArrayList<>();
 
             for (JsonNode chunkNode : chunksArray) {
-                String docTitle = chunkNode.path("docTitle").asText("");
                 String chunkContent = chunkNode.path("chunkContent").asText("");
-                int chunkIndex = chunkNode.path("chunkIndex").asInt();
-
                 if (!chunkContent.isEmpty()) {
-                    // 如果是新文档，添加文档标题
-                    if (!docTitle.equals(lastDocTitle)) {
-                        context.append("\n\n【文档：").append(docTitle).append("】\n");
-                        lastDocTitle = docTitle;
-                    }
-                    context.append("\n[片段").append(chunkIndex + 1).append("]: ");
-                    context.append(chunkContent);
+                    pieces.add(new ContextPacker.Piece(
+                            chunkNode.path("docId").asLong(),
+                            chunkNode.path("docTitle").asText(""),
+                            chunkNode.path("chunkIndex").asInt(),
+                            chunkContent,
+                            similarity(chunkNode.path("score").asDouble())));
                 }
             }
 
-            log.info("分块向量检索完成: 找到{}个相关分块, 上下文长度={}",
-                chunksArray.size(), context.length());
-            return context.toString();
+            log.info("分块向量检索完成: 找到{}个相关分块", pieces.size());
+            return pieces;
 
         } catch (Exception e) {
             log.error("分块向量检索异常: {}", e.getMessage(), e);
-            return "";
+            return List.of();
         }
     }
 
     /**
-     * 调用模型（支持 Function Call 迭代）
+     * 向量检索返回的是 L2 距离（越小越相关），换算为 (0, 1] 的相关度（越大越相关）供装箱排序
+     */
+    private static double similarity(double distance) {
+        return 1.0 / (1.0 + Math.max(distance, 0));
+    }
+
+    /**
+     * 调用模型（支持 Tool Call 迭代，每轮可并发执行多个工具调用）
      */
     private ModelChatResponse callModelWithFunctionCall(
             Long modelId,
@@ -621,95 +908,199 @@ public class QaService {
             iteration++;
             log.info("Function Call 迭代 {}/{}", iteration, maxFunctionCallIterations);
 
-            // 构建请求
-            ModelChatRequest chatRequest = new ModelChatRequest();
-            chatRequest.setModelId(modelId);
-            chatRequest.setMessages(currentMessages);
-            chatRequest.setStream(false);
-            chatRequest.setFunctions(functions);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<ModelChatRequest> entity = new HttpEntity<>(chatRequest, headers);
-
-            // 调用模型服务
-            ResponseEntity<String> response = restTemplate.postForEntity(
-                    MODEL_SERVICE_URL + "/model/invoke/chat",
-                    entity,
-                    String.class
-            );
-
-            String responseBody = response.getBody();
-            log.info("模型服务原始响应: {}", responseBody);
+            ModelChatResponse chatResponse = invokeModel(modelId, currentMessages, functions);
 
-            // 解析响应
-            JsonNode jsonNode = objectMapper.readTree(responseBody);
-            int code = jsonNode.path("code").asInt();
+            // 检查是否有工具调用
+            if (!toolCallsOf(chatResponse).isEmpty()) {
+                executeToolCalls(chatResponse, currentMessages, sessionId, calledFunctions, calledAgents, calledMcpTools);
 
-            if (code != 200) {
-                String errorMsg = jsonNode.path("message").asText("模型调用失败");
-                log.error("模型服务返回错误: code={}, message={}", code, errorMsg);
-                throw new RuntimeException(errorMsg);
+                // 继续下一轮迭代，让模型基于本轮全部工具结果生成最终答案
+                continue;
             }
 
-            JsonNode dataNode = jsonNode.path("data");
-            ModelChatResponse chatResponse = objectMapper.treeToValue(dataNode, ModelChatResponse.class);
+            // 没有工具调用，返回最终结果
+            return chatResponse;
+        }
+
+        log.warn("达到最大 Function Call 迭代次数: {}", maxFunctionCallIterations);
+        throw new RuntimeException("Function Call 迭代次数超限");
+    }
 
-            // 检查是否有 function_call
-            if (chatResponse.getFunctionCall() != null) {
-                String functionName = chatResponse.getFunctionCall().getName();
-                String arguments = chatResponse.getFunctionCall().getArguments();
+    /**
+     * 非流式调用模型服务
+     */
+    private ModelChatResponse invokeModel(Long modelId, List<ChatMessage> messages,
+                                          List<java.util.Map<String, Object>> functions) throws Exception {
+        // 构建请求
+        ModelChatRequest chatRequest = new ModelChatRequest();
+        chatRequest.setModelId(modelId);
+        chatRequest.setMessages(messages);
+        chatRequest.setStream(false);
+        chatRequest.setTools(toolDefinitions(functions));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<ModelChatRequest> entity = new HttpEntity<>(chatRequest, headers);
+
+        // 调用模型服务
+        ResponseEntity<String> response = restTemplate.postForEntity(
+                modelServiceUrl + "/model/invoke/chat",
+                entity,
+                String.class
+        );
 
-                log.info("模型请求调用函数/Agent/MCP: name={}, arguments={}", functionName, arguments);
+        String responseBody = response.getBody();
+        log.info("模型服务原始响应: {}", responseBody);
 
-                String functionResult;
+        // 解析响应
+        JsonNode jsonNode = objectMapper.readTree(responseBody);
+        int code = jsonNode.path("code").asInt();
 
-                // 判断是MCP工具、Agent还是Function
-                if (functionName.contains("__")) {
-                    // MCP工具调用（格式：serverCode__toolName）
-                    log.info("执行MCP工具: {}", functionName);
-                    functionResult = mcpService.executeMcpToolByFunctionCall(functionName, arguments, sessionId);
-                    calledMcpTools.add(functionName);
-                } else {
-                    ExternalAgent agent = agentService.getByCode(functionName);
-                    if (agent != null) {
-                        // 是Agent调用
-                        log.info("执行Agent: {}", functionName);
-                        functionResult = agentService.executeAgentByFunctionCall(functionName, arguments, sessionId);
-                        calledAgents.add(functionName);
-                    } else {
-                        // 是Function调用
-                        log.info("执行Function: {}", functionName);
-                        functionResult = functionCallService.executeFunction(functionName, arguments, sessionId);
-                        calledFunctions.add(functionName);
-                    }
-                }
+        if (code != 200) {
+            String errorMsg = jsonNode.path("message").asText("模型调用失败");
+            log.error("模型服务返回错误: code={}, message={}", code, errorMsg);
+            throw new RuntimeException(errorMsg);
+        }
 
-                log.info("执行结果: {}", functionResult);
+        JsonNode dataNode = jsonNode.path("data");
+        return objectMapper.treeToValue(dataNode, ModelChatResponse.class);
+    }
 
-                // 将函数调用和结果添加到消息历史
-                ChatMessage assistantMessage = new ChatMessage();
-                assistantMessage.setRole("assistant");
-                assistantMessage.setContent(chatResponse.getContent());
-                assistantMessage.setFunctionCall(chatResponse.getFunctionCall());
-                currentMessages.add(assistantMessage);
+    /**
+     * 把可用函数定义包装为模型请求的 tools 参数（没有可用函数时为 null）
+     */
+    private List<java.util.Map<String, Object>> toolDefinitions(List<java.util.Map<String, Object>> functions) {
+        if (functions == null || functions.isEmpty()) {
+            return null;
+        }
+        return functions.stream()
+                .map(function -> java.util.Map.<String, Object>of("type", "function", "function", function))
+                .toList();
+    }
 
-                ChatMessage functionMessage = new ChatMessage();
-                functionMessage.setRole("function");
-                functionMessage.setName(functionName);
-                functionMessage.setContent(functionResult);
-                currentMessages.add(functionMessage);
+    /**
+     * 模型本轮请求的工具调用（兼容只返回单个 function_call 的模型）
+     */
+    private List<ModelChatResponse.ToolCall> toolCallsOf(ModelChatResponse chatResponse) {
+        if (chatResponse.getToolCalls() != null && !chatResponse.getToolCalls().isEmpty()) {
+            return chatResponse.getToolCalls();
+        }
+        if (chatResponse.getFunctionCall() != null) {
+            ModelChatResponse.ToolCall toolCall = new ModelChatResponse.ToolCall();
+            toolCall.setId("call_" + UUID.randomUUID().toString().replace("-", ""));
+            toolCall.setType("function");
+            toolCall.setFunction(chatResponse.getFunctionCall());
+            chatResponse.setToolCalls(List.of(toolCall));
+            return chatResponse.getToolCalls();
+        }
+        return List.of();
+    }
 
-                // 继续下一轮迭代，让模型基于函数结果生成最终答案
-                continue;
+    /**
+     * 并发执行模型本轮请求的全部工具调用（每个调用单独超时），并把调用和结果一次性追加到消息列表
+     */
+    private void executeToolCalls(ModelChatResponse chatResponse, List<ChatMessage> currentMessages, String sessionId,
+                                  List<String> calledFunctions, List<String> calledAgents,
+                                  List<String> calledMcpTools) {
+        List<ModelChatResponse.ToolCall> toolCalls = toolCallsOf(chatResponse);
+        log.info("模型请求调用工具: count={}", toolCalls.size());
+
+        // 先确定每个调用的类型，超时或失败的调用同样计入已调用列表
+        List<ToolKind> kinds = toolCalls.stream()
+                .map(toolCall -> toolKindOf(toolCall.getFunction().getName()))
+                .toList();
+        List<Future<ToolResult>> futures = new ArrayList<>(toolCalls.size());
+        for (int i = 0; i < toolCalls.size(); i++) {
+            ModelChatResponse.ToolCall toolCall = toolCalls.get(i);
+            ToolKind kind = kinds.get(i);
+            futures.add(askPrepareExecutor.submit(() -> executeToolCall(toolCall, kind, sessionId)));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(toolCallTimeoutMs);
+
+        // 助手消息携带本轮全部调用，随后按调用顺序追加各自的结果
+        ChatMessage assistantMessage = new ChatMessage();
+        assistantMessage.setRole("assistant");
+        assistantMessage.setContent(chatResponse.getContent());
+        assistantMessage.setToolCalls(toolCalls);
+        currentMessages.add(assistantMessage);
+
+        for (int i = 0; i < toolCalls.size(); i++) {
+            ToolResult result = awaitToolResult(futures.get(i), kinds.get(i),
+                    toolCalls.get(i).getFunction().getName(), deadline);
+            switch (result.kind()) {
+                case MCP -> calledMcpTools.add(result.name());
+                case AGENT -> calledAgents.add(result.name());
+                case FUNCTION -> calledFunctions.add(result.name());
             }
 
-            // 没有 function_call，返回最终结果
-            return chatResponse;
+            ChatMessage toolMessage = new ChatMessage();
+            toolMessage.setRole("tool");
+            toolMessage.setToolCallId(toolCalls.get(i).getId());
+            toolMessage.setContent(result.content());
+            currentMessages.add(toolMessage);
+        }
+    }
+
+    /**
+     * 等待单个工具调用结果；超时则中断执行线程（虚拟线程上阻塞的 HTTP 读取随之中止），不让调用在后台继续占用下游
+     */
+    private ToolResult awaitToolResult(Future<ToolResult> future, ToolKind kind, String name, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("工具调用超时: name={}, timeout={}ms", name, toolCallTimeoutMs);
+            return new ToolResult(kind, name, "工具调用超时");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ToolResult(kind, name, "工具调用被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.error("工具调用失败: name={}, error={}", name, cause.getMessage());
+            return new ToolResult(kind, name, "工具调用失败: " + cause.getMessage());
         }
+    }
 
-        log.warn("达到最大 Function Call 迭代次数: {}", maxFunctionCallIterations);
-        throw new RuntimeException("Function Call 迭代次数超限");
+    /**
+     * 按名称判断工具类型：MCP工具（格式：serverCode__toolName）、Agent 或 Function
+     */
+    private ToolKind toolKindOf(String name) {
+        if (name.contains("__")) {
+            return ToolKind.MCP;
+        }
+        return agentService.getByCode(name) != null ? ToolKind.AGENT : ToolKind.FUNCTION;
     }
-}
 
+    /**
+     * 执行单个工具调用：按类型路由到MCP工具、Agent或Function
+     */
+    private ToolResult executeToolCall(ModelChatResponse.ToolCall toolCall, ToolKind kind, String sessionId) {
+        String name = toolCall.getFunction().getName();
+        String arguments = toolCall.getFunction().getArguments();
+        log.info("执行工具调用: id={}, name={}, arguments={}", toolCall.getId(), name, arguments);
+
+        String content = switch (kind) {
+            case MCP -> mcpService.executeMcpToolByFunctionCall(name, arguments, sessionId);
+            case AGENT -> agentService.executeAgentByFunctionCall(name, arguments, sessionId);
+            case FUNCTION -> functionCallService.executeFunction(name, arguments, sessionId);
+        };
+        ToolResult result = new ToolResult(kind, name, content);
+
+        log.info("工具调用结果: id={}, name={}, result={}", toolCall.getId(), name, result.content());
+        return result;
+    }
+
+    /**
+     * 工具类型
+     */
+    private enum ToolKind {
+        MCP, AGENT, FUNCTION
+    }
+
+    /**
+     * 单个工具调用的结果（调用超时或失败时 content 为失败提示）
+     */
+    private record ToolResult(ToolKind kind, String name, String content) {
+    }
+}
@@ -0,0 +1,250 @@
+package com.aimanager.qa.service;
+
+import com.aimanager.qa.entity.ExternalAgent;
+import com.aimanager.qa.entity.ExternalFunction;
+import com.aimanager.qa.entity.McpServer;
+import com.aimanager.qa.entity.McpTool;
+import com.aimanager.qa.mapper.ExternalAgentMapper;
+import com.aimanager.qa.mapper.ExternalFunctionMapper;
+import com.aimanager.qa.mapper.McpServerMapper;
+import com.aimanager.qa.mapper.McpToolMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * 工具目录服务
+ * 把启用的函数、Agent、MCP工具预先转换为模型可识别的定义（Schema 只解析一次），
+ * 以不可变快照保存在内存中，变更时整体原子替换。
+ * 本实例变更后通过 Redis 发布失效消息，其他实例收到后各自重建；另有定时全量刷新兜底消息丢失。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ToolCatalogService {
+
+    private final ExternalFunctionMapper functionMapper;
+    private final ExternalAgentMapper agentMapper;
+    private final McpServerMapper serverMapper;
+    private final McpToolMapper toolMapper;
+    private final ObjectMapper objectMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${qa.tool-catalog.channel:qa:tool-catalog:invalidate}")
+    private String invalidateChannel;
+
+    /**
+     * 实例标识，忽略自己发布的失效消息
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String sender = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (!instanceId.equals(sender)) {
+                log.info("收到工具目录失效消息，重建目录: sender={}", sender);
+                refresh();
+            }
+        }, new ChannelTopic(invalidateChannel));
+    }
+
+    /**
+     * 获取当前工具目录快照（首次访问时加载）
+     */
+    public Snapshot getCatalog() {
+        Snapshot current = snapshot.get();
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * 从数据库重建工具目录并原子替换
+     */
+    public synchronized Snapshot refresh() {
+        Snapshot loaded = load();
+        snapshot.set(loaded);
+        log.info("工具目录已加载: 函数{}个, Agent{}个, MCP工具{}个",
+                loaded.getFunctions().size(), loaded.getAgents().size(), loaded.getMcpTools().size());
+        return loaded;
+    }
+
+    /**
+     * 工具定义发生变更：事务提交后重建本地目录并通知其他实例
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    refreshAndPublish();
+                }
+            });
+        } else {
+            refreshAndPublish();
+        }
+    }
+
+    /**
+     * 定时全量刷新，兜底丢失的失效消息
+     */
+    @Scheduled(fixedDelayString = "${qa.tool-catalog.refresh-interval-ms:300000}",
+            initialDelayString = "${qa.tool-catalog.refresh-interval-ms:300000}")
+    public void scheduledRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("定时刷新工具目录失败: {}", e.getMessage());
+        }
+    }
+
+    private void refreshAndPublish() {
+        refresh();
+        try {
+            stringRedisTemplate.convertAndSend(invalidateChannel, instanceId);
+        } catch (Exception e) {
+            log.warn("发布工具目录失效消息失败，其他实例将在定时刷新时更新: {}", e.getMessage());
+        }
+    }
+
+    private Snapshot load() {
+        List<Map<String, Object>> functions = functionMapper.selectList(
+                new LambdaQueryWrapper<ExternalFunction>()
+                        .eq(ExternalFunction::getStatus, 1)
+                        .eq(ExternalFunction::getDeleted, 0)
+        ).stream().map(function -> definition(function.getFunctionName(), function.getDescription(),
+                function.getParametersSchema())).toList();
+
+        List<Map<String, Object>> agents = agentMapper.selectList(
+                new LambdaQueryWrapper<ExternalAgent>()
+                        .eq(ExternalAgent::getStatus, 1)
+                        .eq(ExternalAgent::getDeleted, 0)
+                        .orderByDesc(ExternalAgent::getPriority)
+        ).stream().map(agent -> definition(agent.getAgentCode(), agent.getDescription(),
+                agent.getInputSchema())).toList();
+
+        Map<String, McpToolCache> mcpToolCaches = new HashMap<>();
+        List<Map<String, Object>> mcpTools = loadMcpTools(mcpToolCaches);
+        return new Snapshot(functions, agents, mcpTools, mcpToolCaches, LocalDateTime.now());
+    }
+
+    /**
+     * 一次查询所有启用Server的启用工具，按Server组装（避免每个Server一次查询）；
+     * 配置了结果缓存有效期的工具同时记入 mcpToolCaches
+     */
+    private List<Map<String, Object>> loadMcpTools(Map<String, McpToolCache> mcpToolCaches) {
+        List<McpServer> servers = serverMapper.selectList(
+                new LambdaQueryWrapper<McpServer>()
+                        .eq(McpServer::getStatus, 1)
+                        .eq(McpServer::getDeleted, 0)
+        );
+        if (servers.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, List<McpTool>> toolsByServer = toolMapper.selectList(
+                new LambdaQueryWrapper<McpTool>()
+                        .in(McpTool::getServerId, servers.stream().map(McpServer::getId).toList())
+                        .eq(McpTool::getEnabled, 1)
+                        .eq(McpTool::getDeleted, 0)
+        ).stream().collect(Collectors.groupingBy(McpTool::getServerId));
+
+        List<Map<String, Object>> tools = new ArrayList<>();
+        for (McpServer server : servers) {
+            for (McpTool tool : toolsByServer.getOrDefault(server.getId(), List.of())) {
+                if (tool.getCacheTtlSeconds() != null && tool.getCacheTtlSeconds() > 0) {
+                    mcpToolCaches.put(mcpToolKey(server.getId(), tool.getToolCode()),
+                            new McpToolCache(tool.getId(), tool.getCacheTtlSeconds()));
+                }
+                tools.add(definition(server.getServerCode() + "__" + tool.getToolCode(),
+                        "[MCP:" + server.getServerName() + "] " + tool.getDescription(),
+                        tool.getInputSchema()));
+            }
+        }
+        return tools;
+    }
+
+    /**
+     * 构建模型可识别的函数定义（参数 Schema 在此解析一次）
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> definition(String name, String description, String schema) {
+        Map<String, Object> definition = new HashMap<>();
+        definition.put("name", name);
+        definition.put("description", description);
+        try {
+            if (schema != null && !schema.isEmpty()) {
+                definition.put("parameters", Collections.unmodifiableMap(objectMapper.readValue(schema, Map.class)));
+            }
+        } catch (Exception e) {
+            log.error("解析参数Schema失败: name={}, error={}", name, e.getMessage());
+        }
+        return Collections.unmodifiableMap(definition);
+    }
+
+    private static String mcpToolKey(Long serverId, String toolCode) {
+        return serverId + "/" + toolCode;
+    }
+
+    /**
+     * MCP工具的结果缓存配置
+     */
+    public record McpToolCache(Long toolId, int ttlSeconds) {
+    }
+
+    /**
+     * 工具目录快照（不可变）
+     */
+    @Getter
+    public static class Snapshot {
+
+        private final List<Map<String, Object>> functions;
+        private final List<Map<String, Object>> agents;
+        private final List<Map<String, Object>> mcpTools;
+        @Getter(AccessLevel.NONE)
+        private final Map<String, McpToolCache> mcpToolCaches;
+        private final LocalDateTime loadedAt;
+
+        Snapshot(List<Map<String, Object>> functions, List<Map<String, Object>> agents,
+                 List<Map<String, Object>> mcpTools, Map<String, McpToolCache> mcpToolCaches,
+                 LocalDateTime loadedAt) {
+            this.functions = List.copyOf(functions);
+            this.agents = List.copyOf(agents);
+            this.mcpTools = List.copyOf(mcpTools);
+            this.mcpToolCaches = Map.copyOf(mcpToolCaches);
+            this.loadedAt = loadedAt;
+        }
+
+        /**
+         * MCP工具的结果缓存配置，未启用缓存（或工具、Server 未启用）时返回 null
+         */
+        public McpToolCache getMcpToolCache(Long serverId, String toolCode) {
+            return mcpToolCaches.get(mcpToolKey(serverId, toolCode));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.aimanager.qa.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 工具调用结果缓存（函数、Agent、MCP工具共用）
+ * 只对配置了 cache_ttl_seconds 的工具生效；以 工具类型 + 工具ID + 规范化的 JSON 参数（键排序）为键，
+ * 每个条目按所属工具的有效期过期，总条目数有上限。相同参数的并发调用只执行一次，其余调用等待并共享结果；
+ * 只有成功的结果会被缓存。
+ */
+@Slf4j
+@Service
+public class ToolResultCache {
+
+    public static final String KIND_FUNCTION = "function";
+    public static final String KIND_AGENT = "agent";
+    public static final String KIND_MCP = "mcp";
+
+    /**
+     * 键排序的 JSON 序列化，参数顺序不同的相同调用得到相同的键
+     */
+    private final ObjectMapper canonicalMapper;
+
+    private final Cache<String, Entry> results;
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong sharedCount = new AtomicLong();
+    private final AtomicLong uncacheableCount = new AtomicLong();
+
+    public ToolResultCache(ObjectMapper objectMapper,
+                           @Value("${qa.tool-cache.max-entries:10000}") long maxEntries) {
+        this.canonicalMapper = objectMapper.copy()
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.results = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return entry.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 获取工具调用结果：命中缓存直接返回，否则执行调用（相同参数的并发调用共享一次执行）
+     *
+     * @param kind       工具类型
+     * @param toolId     工具ID
+     * @param ttlSeconds 工具配置的缓存有效期（空或不大于0时不缓存，直接调用）
+     * @param arguments  调用参数（JSON 字符串或对象）
+     * @param invoker    实际调用
+     * @param cacheable  结果是否可缓存（失败结果不缓存）
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String kind, Long toolId, Integer ttlSeconds, Object arguments,
+                     Supplier<T> invoker, Predicate<T> cacheable) {
+        if (ttlSeconds == null || ttlSeconds <= 0) {
+            return invoker.get();
+        }
+        String key = cacheKey(kind, toolId, arguments);
+        if (key == null) {
+            uncacheableCount.incrementAndGet();
+            return invoker.get();
+        }
+
+        Entry cached = results.getIfPresent(key);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            log.debug("工具结果缓存命中: kind={}, toolId={}", kind, toolId);
+            return (T) cached.value();
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            sharedCount.incrementAndGet();
+            return (T) join(running);
+        }
+
+        missCount.incrementAndGet();
+        try {
+            T value = invoker.get();
+            if (value != null && cacheable.test(value)) {
+                results.put(key, new Entry(value, TimeUnit.SECONDS.toNanos(ttlSeconds)));
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", results.estimatedSize());
+        stats.put("inFlight", inFlight.size());
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("sharedCount", sharedCount.get());
+        stats.put("uncacheableCount", uncacheableCount.get());
+        stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * 缓存键：参数先还原为 Map/List 再按键排序序列化，无法解析的参数不缓存
+     */
+    private String cacheKey(String kind, Long toolId, Object arguments) {
+        try {
+            Object value = arguments;
+            if (arguments instanceof String json) {
+                value = json.isBlank() ? null : canonicalMapper.readValue(json, Object.class);
+            }
+            return kind + ":" + toolId + ":" + canonicalMapper.writeValueAsString(value);
+        } catch (Exception e) {
+            log.debug("工具参数无法规范化，不缓存: kind={}, toolId={}, error={}", kind, toolId, e.getMessage());
+            return null;
+        }
+    }
+
+    private Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private record Entry(Object value, long ttlNanos) {
+    }
+}
@@ -1,7 +1,10 @@
 package com.aimanager.vector.controller;
 
 import com.aimanager.common.result.Result;
+import com.aimanager.vector.dto.ChunkVectorizeRequest;
+import com.aimanager.vector.service.EmbeddingService;
 import com.aimanager.vector.service.VectorService;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
@@ -18,6 +21,7 @@ import java.util.Map;
 public class VectorController {
     
     private final VectorService vectorService;
+    private final EmbeddingService embeddingService;
     
     /**
      * 文档向量化
@@ -36,6 +40,16 @@ public class VectorController {
         return Result.success(chunkCount);
     }
 
+    /**
+     * 分块向量化（调用方已完成分块，按给定索引存储）
+     */
+    @PostMapping("/vectorize-chunks")
+    public Result<Integer> vectorizeChunks(@Valid @RequestBody ChunkVectorizeRequest request) {
+        int count = vectorService.vectorizeChunks(
+                request.getDocumentId(), request.getStartIndex(), request.getChunks());
+        return Result.success(count);
+    }
+
     /**
      * 向量检索（返回文档ID列表）
      */
@@ -60,6 +74,25 @@ public class VectorController {
         return Result.success(chunks);
     }
 
+    /**
+     * 文本向量化（只返回向量，不存储）
+     */
+    @PostMapping(value = "/embedding", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+    public Result<List<Float>> embedText(@RequestParam(value = "text") String text) {
+        return Result.success(embeddingService.textToVector(text));
+    }
+
+    /**
+     * 复制文档向量（内容相同的文档复用已有向量，不重新调用嵌入模型）
+     */
+    @PostMapping("/copy")
+    public Result<Integer> copyDocumentVectors(
+            @RequestParam(value = "sourceDocumentId") Long sourceDocumentId,
+            @RequestParam(value = "targetDocumentId") Long targetDocumentId) {
+        int count = vectorService.copyDocumentVectors(sourceDocumentId, targetDocumentId);
+        return Result.success(count);
+    }
+
     /**
      * 删除文档向量
      */
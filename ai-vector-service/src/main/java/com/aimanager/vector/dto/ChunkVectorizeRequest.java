@@ -0,0 +1,32 @@
+package com.aimanager.vector.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 分块向量化请求DTO（调用方已完成分块）
+ */
+@Data
+public class ChunkVectorizeRequest {
+
+    /**
+     * 文档ID
+     */
+    @NotNull(message = "文档ID不能为空")
+    private Long documentId;
+
+    /**
+     * 第一个分块的索引
+     */
+    @NotNull(message = "起始索引不能为空")
+    private Integer startIndex;
+
+    /**
+     * 分块内容（按索引顺序）
+     */
+    @NotEmpty(message = "分块不能为空")
+    private List<String> chunks;
+}
@@ -0,0 +1,35 @@
+package com.aimanager.vector.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 知识库语料版本
+ * 向量集合每次变更（写入、复制、删除、清空）后把 Redis 中的版本更新为当前时间戳，
+ * 问答服务据此判断缓存的答案是否基于旧语料。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CorpusVersionService {
+
+    /**
+     * 语料版本键（值为最近一次变更的毫秒时间戳，问答服务读取同一个键）
+     */
+    public static final String CORPUS_VERSION_KEY = "vector:corpus:version";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 语料已变更
+     */
+    public void bump() {
+        try {
+            stringRedisTemplate.opsForValue().set(CORPUS_VERSION_KEY, String.valueOf(System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.error("更新语料版本失败，问答缓存可能返回旧答案: {}", e.getMessage());
+        }
+    }
+}
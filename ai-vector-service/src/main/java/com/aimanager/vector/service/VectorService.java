@@ -8,8 +8,10 @@ import io.milvus.param.R;
 import io.milvus.param.RpcStatus;
 import io.milvus.param.collection.*;
 import io.milvus.param.dml.InsertParam;
+import io.milvus.param.dml.QueryParam;
 import io.milvus.param.dml.SearchParam;
 import io.milvus.param.index.CreateIndexParam;
+import io.milvus.response.QueryResultsWrapper;
 import io.milvus.response.SearchResultsWrapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -30,6 +32,7 @@ public class VectorService {
     private final MilvusServiceClient milvusClient;
     private final EmbeddingService embeddingService;
     private final TextChunkService textChunkService;
+    private final CorpusVersionService corpusVersionService;
 
     @Value("${milvus.collection-name:knowledge_vectors}")
     private String collectionName;
@@ -266,6 +269,7 @@ public class VectorService {
                 }
             }
 
+            corpusVersionService.bump();
             log.info("文档向量化完成: documentId={}, 总分块数={}", documentId, processedChunks);
             return processedChunks;
 
@@ -278,6 +282,84 @@ public class VectorService {
         }
     }
 
+    /**
+     * 向量化调用方已分好的若干连续分块并存储
+     * 先删除该区间内已有的向量，重复提交同一批分块不会产生重复向量
+     *
+     * @param documentId 文档ID
+     * @param startIndex 第一个分块的索引
+     * @param chunks 分块内容
+     * @return 存储的向量数量
+     */
+    public int vectorizeChunks(Long documentId, int startIndex, List<String> chunks) {
+        log.info("开始分块向量化: documentId={}, 起始索引={}, 分块数={}", documentId, startIndex, chunks.size());
+
+        List<List<Float>> vectors = new ArrayList<>(chunks.size());
+        for (String chunk : chunks) {
+            vectors.add(embeddingService.textToVector(chunk));
+        }
+
+        String expr = "doc_id == " + documentId
+                + " && chunk_index >= " + startIndex
+                + " && chunk_index < " + (startIndex + chunks.size());
+        R<io.milvus.grpc.MutationResult> deleteResponse = milvusClient.delete(
+                io.milvus.param.dml.DeleteParam.newBuilder()
+                        .withCollectionName(collectionName)
+                        .withExpr(expr)
+                        .build()
+        );
+        if (deleteResponse.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("删除旧向量失败: " + deleteResponse.getMessage());
+        }
+
+        storeVectorsBatch(documentId, vectors, startIndex);
+        corpusVersionService.bump();
+        return vectors.size();
+    }
+
+    /**
+     * 将源文档的全部向量复制到目标文档（目标文档已有的向量先删除）
+     *
+     * @return 复制的向量数量（源文档没有向量时为0）
+     */
+    public int copyDocumentVectors(Long sourceDocumentId, Long targetDocumentId) {
+        log.info("复制文档向量: sourceDocumentId={}, targetDocumentId={}", sourceDocumentId, targetDocumentId);
+
+        R<io.milvus.grpc.QueryResults> queryResponse = milvusClient.query(
+                QueryParam.newBuilder()
+                        .withCollectionName(collectionName)
+                        .withExpr("doc_id == " + sourceDocumentId)
+                        .withOutFields(List.of("chunk_index", "embedding"))
+                        .build()
+        );
+        if (queryResponse.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("查询源文档向量失败: " + queryResponse.getMessage());
+        }
+
+        QueryResultsWrapper wrapper = new QueryResultsWrapper(queryResponse.getData());
+        List<?> chunkIndexData = wrapper.getFieldWrapper("chunk_index").getFieldData();
+        List<?> embeddingData = wrapper.getFieldWrapper("embedding").getFieldData();
+
+        deleteDocumentVectors(targetDocumentId);
+        if (chunkIndexData.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> chunkIndexes = new ArrayList<>(chunkIndexData.size());
+        List<List<Float>> vectors = new ArrayList<>(embeddingData.size());
+        for (int i = 0; i < chunkIndexData.size(); i++) {
+            chunkIndexes.add(((Number) chunkIndexData.get(i)).longValue());
+            @SuppressWarnings("unchecked")
+            List<Float> vector = (List<Float>) embeddingData.get(i);
+            vectors.add(vector);
+        }
+
+        insertVectors(targetDocumentId, chunkIndexes, vectors);
+        corpusVersionService.bump();
+        log.info("文档向量复制成功: targetDocumentId={}, 向量数={}", targetDocumentId, vectors.size());
+        return vectors.size();
+    }
+
     /**
      * 存储向量到 Milvus
      */
@@ -297,14 +379,23 @@ public class VectorService {
             return;
         }
 
-        List<Long> docIds = new ArrayList<>();
         List<Long> chunkIndexes = new ArrayList<>();
-
         for (int i = 0; i < vectors.size(); i++) {
-            docIds.add(documentId);
             chunkIndexes.add((long) (startIndex + i));
         }
 
+        insertVectors(documentId, chunkIndexes, vectors);
+
+        log.info("向量批量存储成功: documentId={}, 向量数={}, 起始索引={}",
+            documentId, vectors.size(), startIndex);
+    }
+
+    /**
+     * 按给定的分块索引写入向量
+     */
+    private void insertVectors(Long documentId, List<Long> chunkIndexes, List<List<Float>> vectors) {
+        List<Long> docIds = new ArrayList<>(Collections.nCopies(vectors.size(), documentId));
+
         List<InsertParam.Field> fields = new ArrayList<>();
         fields.add(new InsertParam.Field("doc_id", docIds));
         fields.add(new InsertParam.Field("chunk_index", chunkIndexes));
@@ -320,9 +411,6 @@ public class VectorService {
         if (response.getStatus() != R.Status.Success.getCode()) {
             throw new RuntimeException("向量存储失败: " + response.getMessage());
         }
-
-        log.info("向量批量存储成功: documentId={}, 向量数={}, 起始索引={}",
-            documentId, vectors.size(), startIndex);
     }
 
     /**
@@ -462,6 +550,7 @@ public class VectorService {
                 throw new RuntimeException("删除向量失败: " + response.getMessage());
             }
 
+            corpusVersionService.bump();
             log.info("文档向量删除成功: documentId={}", documentId);
 
         } catch (Exception e) {
@@ -510,6 +599,7 @@ public class VectorService {
             // 5. 加载 Collection
             loadCollection();
 
+            corpusVersionService.bump();
             log.info("向量 Collection 清空成功，已重新创建: {}", collectionName);
 
         } catch (Exception e) {
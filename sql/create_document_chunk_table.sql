@@ -0,0 +1,19 @@
+-- ========================================
+-- 文档分块表（上传时一次性分块并持久化，检索回填时按 (doc_id, chunk_index) 批量查询）
+-- ========================================
+
+CREATE TABLE IF NOT EXISTS `t_document_chunk` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `doc_id` BIGINT NOT NULL COMMENT '文档ID',
+    `chunk_index` INT NOT NULL COMMENT '分块索引（与向量库中的 chunk_index 一致）',
+    `start_offset` INT NOT NULL COMMENT '分块在原文中的起始偏移（字符）',
+    `end_offset` INT NOT NULL COMMENT '分块在原文中的结束偏移（字符，不含）',
+    `start_page` INT COMMENT '起始页码',
+    `end_page` INT COMMENT '结束页码（含）',
+    `chunk_content` TEXT COMMENT '分块内容',
+    `content_hash` CHAR(64) COMMENT '分块内容SHA-256',
+    `create_time` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_doc_chunk` (`doc_id`, `chunk_index`),
+    KEY `idx_content_hash` (`content_hash`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档分块表';
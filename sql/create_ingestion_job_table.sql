@@ -0,0 +1,24 @@
+-- ========================================
+-- 文档入库任务表（分块 -> 向量化，持久化进度，支持重试与重启后续跑）
+-- ========================================
+
+CREATE TABLE IF NOT EXISTS `t_ingestion_job` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `doc_id` BIGINT NOT NULL COMMENT '文档ID',
+    `source_doc_id` BIGINT COMMENT '内容相同的源文档ID（优先复制其向量）',
+    `status` VARCHAR(20) NOT NULL DEFAULT 'PENDING' COMMENT '状态（PENDING/RUNNING/SUCCESS/FAILED/CANCELLED）',
+    `stage` VARCHAR(20) NOT NULL DEFAULT 'CHUNK' COMMENT '当前阶段（CHUNK/EMBED/DONE）',
+    `attempts` INT NOT NULL DEFAULT 0 COMMENT '当前阶段已尝试次数',
+    `max_attempts` INT NOT NULL DEFAULT 5 COMMENT '每阶段最大尝试次数',
+    `total_chunks` INT NOT NULL DEFAULT 0 COMMENT '分块总数',
+    `embedded_chunks` INT NOT NULL DEFAULT 0 COMMENT '已向量化分块数',
+    `next_run_time` DATETIME NOT NULL COMMENT '下次可执行时间（重试退避）',
+    `lease_until` DATETIME COMMENT '执行租约到期时间（过期视为执行者已失联）',
+    `last_error` TEXT COMMENT '最近一次错误信息',
+    `finish_time` DATETIME COMMENT '完成时间',
+    `create_time` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `update_time` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    KEY `idx_doc_id` (`doc_id`),
+    KEY `idx_status_next_run` (`status`, `next_run_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档入库任务表';
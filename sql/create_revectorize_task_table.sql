@@ -0,0 +1,21 @@
+-- ========================================
+-- 全量重新向量化任务表（记录检查点，中断后重新执行从检查点继续）
+-- ========================================
+
+CREATE TABLE IF NOT EXISTS `t_revectorize_task` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `status` VARCHAR(20) NOT NULL DEFAULT 'RUNNING' COMMENT '状态（RUNNING/COMPLETED）',
+    `last_doc_id` BIGINT NOT NULL DEFAULT 0 COMMENT '检查点：已处理完成的最大文档ID',
+    `total_documents` INT NOT NULL DEFAULT 0 COMMENT '待处理文档总数',
+    `processed_documents` INT NOT NULL DEFAULT 0 COMMENT '已处理文档数',
+    `success_count` INT NOT NULL DEFAULT 0 COMMENT '成功文档数',
+    `fail_count` INT NOT NULL DEFAULT 0 COMMENT '失败文档数',
+    `total_chunks` INT NOT NULL DEFAULT 0 COMMENT '已向量化分块数',
+    `last_error` TEXT COMMENT '最近一次错误信息',
+    `start_time` DATETIME COMMENT '开始时间',
+    `finish_time` DATETIME COMMENT '完成时间',
+    `create_time` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `update_time` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    KEY `idx_status` (`status`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='全量重新向量化任务表';
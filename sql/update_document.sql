@@ -0,0 +1,16 @@
+-- 文档列表游标分页索引（ORDER BY create_time DESC, id DESC）
+ALTER TABLE t_document ADD INDEX idx_create_time_id (create_time, id);
+
+-- PDF分页边界：文档记录每页起始偏移（分块所在页码见 create_document_chunk_table.sql）
+ALTER TABLE t_document ADD COLUMN page_offsets TEXT COMMENT '分页偏移（每页在正文中的起始偏移，逗号分隔）' AFTER content;
+
+-- 上传去重：按文件哈希查找已有文档
+ALTER TABLE t_document ADD INDEX idx_file_hash (file_hash);
+
+-- 文档内容压缩存储（zstd）：原有纯文本按字节原样保留，读取时按魔数区分，
+-- 可调用 POST /document/content/compress 压缩历史数据
+ALTER TABLE t_document MODIFY COLUMN content LONGBLOB COMMENT '文档内容（zstd压缩）';
+
+-- 列表内容摘录：正文前500字符单独存储，列表不再读取 content；
+-- 历史文档可调用 POST /document/content/compress 回填
+ALTER TABLE t_document ADD COLUMN content_snippet VARCHAR(500) COMMENT '内容摘录（正文前500字符）' AFTER content;
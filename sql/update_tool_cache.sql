@@ -0,0 +1,6 @@
+-- 工具结果缓存：按工具开启，0 表示不缓存（默认）
+USE ai_knowledge_platform;
+
+ALTER TABLE t_external_function ADD COLUMN cache_ttl_seconds INT DEFAULT 0 COMMENT '结果缓存有效期（秒，0-不缓存，仅用于幂等查询类函数）' AFTER retry_times;
+ALTER TABLE t_external_agent ADD COLUMN cache_ttl_seconds INT DEFAULT 0 COMMENT '结果缓存有效期（秒，0-不缓存，仅用于幂等的Agent）' AFTER retry_times;
+ALTER TABLE t_mcp_tool ADD COLUMN cache_ttl_seconds INT DEFAULT 0 COMMENT '结果缓存有效期（秒，0-不缓存，仅用于幂等的工具）' AFTER enabled;